@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.List;
+
+import building_blocks.CompactGraph;
+import building_blocks.Graph;
+import building_blocks.Tile;
+import utils.store.NodeStore;
+
+/**
+ * heap per node of the merged Graph (buildIn and rebuildDataSet, the tiles
+ * dropped) against the CompactGraph frozen from it, NodeEntities released,
+ * over the synthetic lattice of ShardedMergeBenchmark. Heap is measured as
+ * App does it, used after System.gc(), less what was used before the tiles.
+ *
+ * args: [tiles per side] [nodes per tile side] [store: heap | direct]
+ */
+public class CompactGraphHeapBenchmark {
+
+	public static void main(String[] args) {
+		int tilesPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int tileSide = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		NodeStore.Kind kind = args.length > 2 && args[2].equals("direct") ? NodeStore.Kind.DIRECT : NodeStore.Kind.HEAP;
+		CompactGraph.setStore(new NodeStore(kind, null));
+
+		long empty = usedHeap();
+		Graph graph = new Graph(null);
+		List<Tile> tiles = ShardedMergeBenchmark.tiles(tilesPerSide, tileSide);
+		for (Tile tile : tiles)
+			graph.buildIn(tile);
+		tiles = null;
+		graph.rebuildDataSet();
+		graph.computeEdgeSizeAfterMerge();
+		int nodes = graph.getDatasetSize();
+		int edges = graph.getEdgeSizeAfterMerge();
+		long withGraph = usedHeap() - empty;
+
+		CompactGraph compact = CompactGraph.freeze(graph);
+		graph.releaseDataSet();
+		long withCompact = usedHeap() - empty;
+
+		System.out.println("\n\n=========================================================================");
+		System.out.println("nodes: " + nodes + " edges (directed): " + edges + " store: " + kind);
+		System.out.println("HEAP with Graph: " + withGraph + " per node: " + withGraph / nodes);
+		System.out.println("HEAP with CompactGraph: " + withCompact + " per node: " + withCompact / compact.getSize()
+				+ " columns per node: " + compact.estimateBytes() / compact.getSize());
+		System.out.println("=========================================================================\n");
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import building_blocks.Tile;
+import entity.DB_names;
+import entity.NodeEntity;
+import session.HibernateTileLoader;
+import session.JdbcSettings;
+import session.JdbcTileLoader;
+import session.SessionAdapter;
+
+/**
+ * hibernate entity loading vs raw JDBC loading of the same shots,
+ * rows = nodes + adjacency entries, both paths count them the same way
+ *
+ * args: [number of shots] [fetch size]
+ */
+public class LoaderBenchmark {
+
+	public static void main(String[] args) {
+		int nmbOfShots = SessionAdapter.getInstance().loadNmbOfShots();
+		int benchShots = args.length > 0 ? Math.min(Integer.parseInt(args[0]), nmbOfShots) : Math.min(50, nmbOfShots);
+		int fetchSize = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+		System.out.println("LOADER BENCHMARK on " + DB_names.NAME + ", shots: " + benchShots + ", fetch size: "
+				+ fetchSize);
+
+		// warm up both paths on the first shot, connection pool, JIT, query cache
+		HibernateTileLoader hibernate = new HibernateTileLoader();
+		hibernate.loadTile(0);
+		JdbcTileLoader jdbc = new JdbcTileLoader(JdbcSettings.fromHibernateConfig(), fetchSize);
+		jdbc.loadTile(0);
+
+		long rowsHibernate = 0;
+		long start = System.nanoTime();
+		for (int shot = 0; shot < benchShots; shot++) {
+			rowsHibernate += countRows(hibernate.loadTile(shot));
+		}
+		long hibernateNanos = System.nanoTime() - start;
+
+		long rowsJdbc = 0;
+		start = System.nanoTime();
+		for (int shot = 0; shot < benchShots; shot++) {
+			rowsJdbc += countRows(jdbc.loadTile(shot));
+		}
+		long jdbcNanos = System.nanoTime() - start;
+		jdbc.close();
+
+		if (rowsHibernate != rowsJdbc)
+			System.err.println("ROWS DIFFER hibernate: " + rowsHibernate + " jdbc: " + rowsJdbc);
+
+		double hibernateRate = rowsPerSecond(rowsHibernate, hibernateNanos);
+		double jdbcRate = rowsPerSecond(rowsJdbc, jdbcNanos);
+		System.out.println("\n\n=========================================================================");
+		System.out.println("hibernate: rows " + rowsHibernate + " ms " + (hibernateNanos / 1000000) + " rows/s "
+				+ (long) hibernateRate);
+		System.out.println("raw JDBC:  rows " + rowsJdbc + " ms " + (jdbcNanos / 1000000) + " rows/s "
+				+ (long) jdbcRate);
+		System.out.println("speedup: " + (jdbcRate / hibernateRate));
+		System.out.println("=========================================================================\n");
+	}
+
+	private static long countRows(Tile tile) {
+		long rows = 0;
+		for (NodeEntity ne : tile.getData()) {
+			rows += 1 + ne.getAdjacents().size();
+		}
+		return rows;
+	}
+
+	private static double rowsPerSecond(long rows, long nanos) {
+		return rows / (nanos / 1000000000.0);
+	}
+}
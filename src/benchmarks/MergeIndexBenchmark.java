@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import building_blocks.Graph;
+import building_blocks.SnapshotTileSource;
+import building_blocks.Tile;
+import entity.DB_names;
+import ifaces.TileSource;
+import session.HibernateTileSource;
+import session.JdbcSettings;
+import session.JdbcTileSource;
+
+/**
+ * Graph.buildIn over every tile and rebuildDataSet as the merge runs them,
+ * the dataset a HashMap on NodeEntity.hashCode() against the QuantizedIndex
+ * of App.QUANTIZED_MERGE_INDEX. Tiles of a real region are held in memory
+ * and shared by all runs (a rebuild maps adjacents to equal nodes, the next
+ * run finds the same ones), synthetic ones are generated anew before every
+ * run, outside of the timing.
+ *
+ * args: hibernate | jdbc | snapshot:path | synthetic:tiles per side:nodes per
+ * tile side [rounds]
+ */
+public class MergeIndexBenchmark {
+
+	private static final int FETCH_SIZE = 5000;
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: hibernate | jdbc | snapshot:path | synthetic:tiles:side [rounds]");
+			return;
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<Tile> tiles = args[0].startsWith("synthetic:") ? null : load(args[0]);
+
+		StringBuilder results = new StringBuilder();
+		for (int r = 0; r < rounds; r++) {
+			results.append("round ").append(r);
+			long datasetSize = -1;
+			long edgeSize = -1;
+			for (boolean quantized : new boolean[] { false, true }) {
+				List<Tile> run = tiles != null ? tiles : synthetic(args[0]);
+				Graph graph = new Graph(null, quantized);
+				long start = System.nanoTime();
+				for (Tile tile : run)
+					graph.buildIn(tile);
+				long built = System.nanoTime();
+				graph.rebuildDataSet();
+				long rebuilt = System.nanoTime();
+				graph.computeEdgeSizeAfterMerge();
+				if (datasetSize >= 0 && (graph.getDatasetSize() != datasetSize
+						|| graph.getEdgeSizeAfterMerge() != edgeSize))
+					throw new RuntimeException("HALT HashMap and QuantizedIndex disagree: " + datasetSize + " / "
+							+ graph.getDatasetSize() + " nodes, " + edgeSize + " / " + graph.getEdgeSizeAfterMerge()
+							+ " edges");
+				datasetSize = graph.getDatasetSize();
+				edgeSize = graph.getEdgeSizeAfterMerge();
+				results.append(quantized ? " | QuantizedIndex" : " | HashMap").append(" buildIn ms: ")
+						.append((built - start) / 1000000).append(" rebuild ms: ").append((rebuilt - built) / 1000000);
+			}
+			results.append(" | merged: ").append(datasetSize).append("\n");
+		}
+		System.out.println("\n\n=========================================================================");
+		System.out.print(results);
+		System.out.println("=========================================================================\n");
+	}
+
+	private static List<Tile> load(String arg) {
+		TileSource source = create(arg);
+		List<Tile> tiles = new ArrayList<Tile>();
+		long nodes = 0;
+		for (Tile tile : source) {
+			tiles.add(tile);
+			nodes += tile.getData().size();
+		}
+		source.close();
+		System.out.println("Tiles: " + tiles.size() + " nodes: " + nodes);
+		return tiles;
+	}
+
+	private static List<Tile> synthetic(String arg) {
+		String[] parts = arg.split(":");
+		return ShardedMergeBenchmark.tiles(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+	}
+
+	private static TileSource create(String arg) {
+		if (arg.equals("hibernate"))
+			return new HibernateTileSource();
+		if (arg.equals("jdbc"))
+			return new JdbcTileSource("JDBC/MySQL", JdbcSettings.fromHibernateConfig(), true, FETCH_SIZE);
+		if (arg.startsWith("snapshot:"))
+			return new SnapshotTileSource(arg.substring("snapshot:".length()), DB_names.TABLE_NODES);
+		throw new RuntimeException("unknown source " + arg);
+	}
+}
@@ -0,0 +1,121 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import building_blocks.Graph;
+import building_blocks.ShardedMerge;
+import building_blocks.Tile;
+import entity.NodeEntity;
+
+/**
+ * buildIn plus rebuildDataSet, sequential against ShardedMerge with a number
+ * of shards, over a synthetic region: a lattice cut into square tiles that
+ * overlap their neighbours by a margin, every node adjacent to its four
+ * lattice neighbours, the ones out of the tile as foreign nodes. Tiles are
+ * generated anew before every run (the merge rewrites adjacents), outside
+ * of the timing.
+ *
+ * args: [tiles per side] [nodes per tile side] [shard counts, comma
+ * separated] [rounds]
+ */
+public class ShardedMergeBenchmark {
+
+	private static final int MARGIN = 4;
+	// lattice step in quantization units of NodeEntity (1e-4 degree)
+	private static final double STEP = 3e-4;
+
+	public static void main(String[] args) {
+		int tilesPerSide = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int tileSide = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		String[] shardCounts = (args.length > 2 ? args[2] : "1,2,4,8").split(",");
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		System.out.println("Tiles: " + tilesPerSide * tilesPerSide + " raw nodes: "
+				+ (long) tilesPerSide * tilesPerSide * (tileSide + 2 * MARGIN) * (tileSide + 2 * MARGIN)
+				+ " cores: " + Runtime.getRuntime().availableProcessors());
+
+		StringBuilder results = new StringBuilder();
+		for (int r = 0; r < rounds; r++) {
+			List<Tile> tiles = tiles(tilesPerSide, tileSide);
+			Graph sequential = new Graph(null);
+			long start = System.nanoTime();
+			for (Tile tile : tiles)
+				sequential.buildIn(tile);
+			sequential.rebuildDataSet();
+			long sequentialNs = System.nanoTime() - start;
+			sequential.computeEdgeSizeAfterMerge();
+			results.append("round ").append(r).append(" | sequential ms: ").append(sequentialNs / 1000000)
+					.append(" nodes/s: ").append(perSecond(sequential.getRawSize(), sequentialNs));
+
+			for (String count : shardCounts) {
+				int shards = Integer.parseInt(count.trim());
+				tiles = tiles(tilesPerSide, tileSide);
+				Graph graph = new Graph(null);
+				start = System.nanoTime();
+				ShardedMerge merge = new ShardedMerge(shards);
+				for (Tile tile : tiles)
+					merge.buildIn(tile);
+				merge.finish(graph);
+				graph.rebuildDataSet(shards);
+				long shardedNs = System.nanoTime() - start;
+				graph.computeEdgeSizeAfterMerge();
+				if (graph.getDatasetSize() != sequential.getDatasetSize()
+						|| graph.getEdgeSizeAfterMerge() != sequential.getEdgeSizeAfterMerge())
+					throw new RuntimeException("HALT sharded and sequential merge disagree: " + graph.getDatasetSize()
+							+ " / " + sequential.getDatasetSize() + " nodes, " + graph.getEdgeSizeAfterMerge() + " / "
+							+ sequential.getEdgeSizeAfterMerge() + " edges");
+				results.append(" | shards ").append(shards).append(" ms: ").append(shardedNs / 1000000)
+						.append(" nodes/s: ").append(perSecond(graph.getRawSize(), shardedNs));
+			}
+			results.append("\n");
+		}
+		System.out.println("\n\n=========================================================================");
+		System.out.print(results);
+		System.out.println("=========================================================================\n");
+	}
+
+	static List<Tile> tiles(int tilesPerSide, int tileSide) {
+		List<Tile> tiles = new ArrayList<Tile>();
+		int shot = 0;
+		for (int tr = 0; tr < tilesPerSide; tr++) {
+			for (int tc = 0; tc < tilesPerSide; tc++) {
+				int r0 = tr * tileSide - MARGIN;
+				int c0 = tc * tileSide - MARGIN;
+				int side = tileSide + 2 * MARGIN;
+				NodeEntity[][] cells = new NodeEntity[side][side];
+				List<NodeEntity> data = new ArrayList<NodeEntity>(side * side);
+				for (int r = 0; r < side; r++) {
+					for (int c = 0; c < side; c++) {
+						cells[r][c] = node(shot, r0 + r, c0 + c);
+						data.add(cells[r][c]);
+					}
+				}
+				int[][] steps = { { 0, 1 }, { 0, -1 }, { 1, 0 }, { -1, 0 } };
+				for (int r = 0; r < side; r++) {
+					for (int c = 0; c < side; c++) {
+						for (int[] step : steps) {
+							int nr = r + step[0];
+							int nc = c + step[1];
+							boolean inside = nr >= 0 && nr < side && nc >= 0 && nc < side;
+							cells[r][c].addToAdj(inside ? cells[nr][nc] : node(shot + 1, r0 + nr, c0 + nc));
+						}
+					}
+				}
+				tiles.add(new Tile(shot++, data));
+			}
+		}
+		return tiles;
+	}
+
+	private static NodeEntity node(int shot, int row, int col) {
+		NodeEntity ne = new NodeEntity(shot, 14.0 + (col + 0.5) * STEP, 50.0 + (row + 0.5) * STEP, (short) 1,
+				new HashSet<NodeEntity>());
+		ne.setId(((long) row << 32) | (col & 0xFFFFFFFFL));
+		return ne;
+	}
+
+	private static long perSecond(long count, long ns) {
+		return ns == 0 ? 0 : count * 1000000000L / ns;
+	}
+}
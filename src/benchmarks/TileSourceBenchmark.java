@@ -0,0 +1,64 @@
+package benchmarks;
+
+import building_blocks.Graph;
+import building_blocks.SnapshotTileSource;
+import building_blocks.Tile;
+import core.App;
+import entity.DB_names;
+import ifaces.TileSource;
+import session.EmbeddedTileSource;
+import session.HibernateTileSource;
+import session.JdbcSettings;
+import session.JdbcTileSource;
+
+/**
+ * the same ingest (load, buildIn, rebuildDataSet) timed per tile source
+ *
+ * args: hibernate | jdbc | bulk | snapshot:path | embedded:dumpPath ...
+ */
+public class TileSourceBenchmark {
+
+	private static final int FETCH_SIZE = 5000;
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: hibernate | jdbc | bulk | snapshot:path | embedded:dumpPath ...");
+			return;
+		}
+		StringBuilder results = new StringBuilder();
+		for (String arg : args) {
+			TileSource source = create(arg);
+			long start = System.nanoTime();
+			Graph graph = new Graph(new App());
+			int tiles = 0;
+			for (Tile tile : source) {
+				graph.buildIn(tile);
+				tiles++;
+			}
+			long loaded = System.nanoTime();
+			graph.rebuildDataSet();
+			long rebuilt = System.nanoTime();
+			source.close();
+			results.append(source.getName()).append(" | tiles: ").append(tiles).append(" | raw nodes: ")
+					.append(graph.getRawSize()).append(" | merged nodes: ").append(graph.getDatasetSize())
+					.append(" | load+buildIn ms: ").append((loaded - start) / 1000000).append(" | rebuild ms: ")
+					.append((rebuilt - loaded) / 1000000).append("\n");
+		}
+		System.out.println("\n\n=========================================================================");
+		System.out.print(results);
+		System.out.println("=========================================================================\n");
+	}
+
+	private static TileSource create(String arg) {
+		if (arg.equals("hibernate"))
+			return new HibernateTileSource();
+		if (arg.equals("jdbc") || arg.equals("bulk"))
+			return new JdbcTileSource("JDBC/MySQL", JdbcSettings.fromHibernateConfig(), arg.equals("bulk"),
+					FETCH_SIZE);
+		if (arg.startsWith("snapshot:"))
+			return new SnapshotTileSource(arg.substring("snapshot:".length()), DB_names.TABLE_NODES);
+		if (arg.startsWith("embedded:"))
+			return new EmbeddedTileSource(arg.substring("embedded:".length()), false, FETCH_SIZE);
+		throw new RuntimeException("unknown source " + arg);
+	}
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import building_blocks.clustering.UnionFind;
+
+/**
+ * Kruskal merging alone, UnionFind against the HashSet merging Clustering
+ * used to do (every member of the second set moved into the first one),
+ * over a lattice of nodes, edges to the right and down neighbours in a
+ * random order as a length sort would leave them, merged down to
+ * nodes / 20 sets as Clustering stops
+ *
+ * args: [nodes] [rounds] [hashset: true | false, false by default, quadratic
+ * at worst, minutes on a million nodes]
+ */
+public class UnionFindBenchmark {
+
+	private static final int CLUSTER_SIZE_DIVISOR = 20;
+
+	public static void main(String[] args) {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		boolean hashSet = args.length > 2 && Boolean.parseBoolean(args[2]);
+		int side = (int) Math.ceil(Math.sqrt(nodes));
+		nodes = side * side;
+		int[] from = new int[2 * side * (side - 1)];
+		int[] to = new int[from.length];
+		int edges = 0;
+		for (int i = 0; i < nodes; i++) {
+			if (i % side + 1 < side) {
+				from[edges] = i;
+				to[edges++] = i + 1;
+			}
+			if (i + side < nodes) {
+				from[edges] = i;
+				to[edges++] = i + side;
+			}
+		}
+		Random random = new Random(7);
+		for (int e = edges - 1; e > 0; e--) {
+			int k = random.nextInt(e + 1);
+			int f = from[e];
+			int t = to[e];
+			from[e] = from[k];
+			to[e] = to[k];
+			from[k] = f;
+			to[k] = t;
+		}
+		int target = nodes / CLUSTER_SIZE_DIVISOR;
+		System.out.println("Nodes: " + nodes + " edges: " + edges + " sets wanted: " + target);
+
+		StringBuilder results = new StringBuilder();
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			UnionFind unionFind = new UnionFind(nodes);
+			int scanned = 0;
+			for (int e = 0; e < edges && unionFind.getCount() > target; e++, scanned++)
+				unionFind.union(from[e], to[e]);
+			int[] labels = unionFind.labels();
+			long unionFindNs = System.nanoTime() - start;
+			results.append("round ").append(r).append(" | edges scanned: ").append(scanned).append(" sets: ")
+					.append(unionFind.getCount()).append(" | UnionFind ms: ").append(unionFindNs / 1000000)
+					.append(" edges/s: ").append(perSecond(scanned, unionFindNs));
+
+			if (hashSet) {
+				start = System.nanoTime();
+				int sets = hashSetMerge(nodes, from, to, edges, target);
+				long hashSetNs = System.nanoTime() - start;
+				if (sets != unionFind.getCount() || labels.length != nodes)
+					throw new RuntimeException("HALT UnionFind and HashSet merging disagree: " + unionFind.getCount()
+							+ " / " + sets + " sets");
+				results.append(" | HashSet ms: ").append(hashSetNs / 1000000).append(" edges/s: ")
+						.append(perSecond(scanned, hashSetNs));
+			}
+			results.append("\n");
+		}
+		System.out.println("\n\n=========================================================================");
+		System.out.print(results);
+		System.out.println("=========================================================================\n");
+	}
+
+	/**
+	 * @return sets left
+	 */
+	private static int hashSetMerge(int nodes, int[] from, int[] to, int edges, int target) {
+		List<Set<Integer>> setOf = new ArrayList<Set<Integer>>(nodes);
+		for (int i = 0; i < nodes; i++) {
+			Set<Integer> set = new HashSet<Integer>();
+			set.add(i);
+			setOf.add(set);
+		}
+		int sets = nodes;
+		for (int e = 0; e < edges && sets > target; e++) {
+			Set<Integer> s1 = setOf.get(from[e]);
+			Set<Integer> s2 = setOf.get(to[e]);
+			if (s1 == s2)
+				continue;
+			for (Integer p : s2) {
+				setOf.set(p, s1);
+				s1.add(p);
+			}
+			sets--;
+		}
+		return sets;
+	}
+
+	private static long perSecond(int count, long ns) {
+		return ns == 0 ? 0 : count * 1000000000L / ns;
+	}
+}
@@ -0,0 +1,222 @@
+package building_blocks;
+
+import java.util.Arrays;
+
+import utils.ParallelRanges;
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+import utils.store.NodeStore;
+
+/**
+ * Graph.contractAlignedNodes over a CompactGraph.
+ *
+ * Works on a copy of the target slots, a cut middle loses its slots, in the
+ * rows of start and end the slot of middle is turned into the new edge or
+ * dropped (-1) when start and end are adjacent already. The CompactGraph is
+ * compacted once, after all passes.
+ *
+ * Degrees, cuts and worklists are columns of the store as well and freed
+ * when the passes are done; only the flags stay on the heap, 4 bytes a node.
+ */
+class AlignedNodesCut {
+
+	private final NodeStore store;
+	private final int size;
+	private final IntColumn offsets;
+	private final IntColumn rowTargets;
+	private final DoubleColumn lats;
+	private final DoubleColumn lons;
+	private final IntColumn degree;
+	private final boolean[] alive;
+	private final boolean[] available;
+	private final IntColumn starts;
+	private final IntColumn middles;
+	private final IntColumn ends;
+	private final int threads;
+
+	/**
+	 * @param threads collinearity of candidates evaluated on this many threads
+	 */
+	AlignedNodesCut(CompactGraph graph, int threads) {
+		this.threads = threads;
+		this.store = CompactGraph.store();
+		this.size = graph.getSize();
+		this.offsets = graph.offsets();
+		this.rowTargets = store.copyOf(graph.targets(), graph.getEdgeSize());
+		this.lats = graph.lats();
+		this.lons = graph.lons();
+		this.degree = store.ints(size);
+		this.alive = new boolean[size];
+		this.available = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			degree.set(i, graph.degree(i));
+			alive[i] = true;
+		}
+		// at most one cut per three nodes a round
+		int maxCuts = size / 3 + 1;
+		this.starts = store.ints(maxCuts);
+		this.middles = store.ints(maxCuts);
+		this.ends = store.ints(maxCuts);
+	}
+
+	/**
+	 * passes until nothing can be cut. The first pass considers every node,
+	 * later ones only nodes whose neighbourhood changed (start and end of a
+	 * cut) or that were held back as unavailable, in index order.
+	 *
+	 * @return cuts per pass
+	 */
+	int[] cutToFixedPoint() {
+		IntColumn worklist = store.ints(size);
+		int work = 0;
+		for (int i = 0; i < size; i++) {
+			if (alive[i] && degree.get(i) == 2)
+				worklist.set(work++, i);
+		}
+		boolean[] queued = new boolean[size];
+		IntColumn next = store.ints(size);
+		// per worklist entry, evaluated in parallel before the selection
+		final IntColumn candStart = store.ints(size);
+		final IntColumn candEnd = store.ints(size);
+		final boolean[] aligned = new boolean[size];
+		int[] perPass = new int[16];
+		int passes = 0;
+		for (int i = 0; i < size; i++)
+			available[i] = alive[i];
+		while (work > 0) {
+			evaluate(worklist, work, candStart, candEnd, aligned);
+			// selection in index order, a cut locks start, middle and end for the pass
+			int cuts = 0;
+			int nextWork = 0;
+			for (int w = 0; w < work; w++) {
+				int middle = worklist.get(w);
+				if (!alive[middle] || degree.get(middle) != 2)
+					continue;
+				if (!available[middle]) {
+					nextWork = enqueue(middle, queued, next, nextWork);
+					continue;
+				}
+				int start = candStart.get(w);
+				int end = candEnd.get(w);
+				if (!available[start] || !available[end]) {
+					nextWork = enqueue(middle, queued, next, nextWork);
+					continue;
+				}
+				if (aligned[w]) {
+					starts.set(cuts, start);
+					middles.set(cuts, middle);
+					ends.set(cuts, end);
+					cuts++;
+					available[start] = false;
+					available[middle] = false;
+					available[end] = false;
+				}
+			}
+			for (int c = 0; c < cuts; c++) {
+				performCut(starts.get(c), middles.get(c), ends.get(c));
+				available[starts.get(c)] = true;
+				available[ends.get(c)] = true;
+				nextWork = enqueue(starts.get(c), queued, next, nextWork);
+				nextWork = enqueue(ends.get(c), queued, next, nextWork);
+			}
+			System.out.println("CUT PROCEDURE: pass " + passes + " worklist: " + work + " cut: " + cuts);
+			if (passes == perPass.length)
+				perPass = Arrays.copyOf(perPass, passes * 2);
+			perPass[passes++] = cuts;
+
+			next.sort(0, nextWork);
+			for (int w = 0; w < nextWork; w++)
+				queued[next.get(w)] = false;
+			IntColumn swap = worklist;
+			worklist = next;
+			next = swap;
+			work = nextWork;
+		}
+		store.free(worklist);
+		store.free(next);
+		store.free(candStart);
+		store.free(candEnd);
+		store.free(degree);
+		store.free(starts);
+		store.free(middles);
+		store.free(ends);
+		return Arrays.copyOf(perPass, passes);
+	}
+
+	/**
+	 * collinearity of every degree 2 candidate, the graph is only read here
+	 */
+	private void evaluate(final IntColumn worklist, int work, final IntColumn candStart, final IntColumn candEnd,
+			final boolean[] aligned) {
+		ParallelRanges.run("cut", work, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int w = from; w < to; w++) {
+					int middle = worklist.get(w);
+					aligned[w] = false;
+					if (!alive[middle] || degree.get(middle) != 2)
+						continue;
+					int start = -1;
+					int end = -1;
+					for (int e = offsets.get(middle); e < offsets.get(middle + 1); e++) {
+						int t = rowTargets.get(e);
+						if (t < 0)
+							continue;
+						if (start < 0)
+							start = t;
+						else
+							end = t;
+					}
+					candStart.set(w, start);
+					candEnd.set(w, end);
+					aligned[w] = Graph.isAlignedTriple(lats.get(start), lons.get(start), lats.get(middle), lons.get(middle),
+							lats.get(end), lons.get(end));
+				}
+			}
+		});
+	}
+
+	private int enqueue(int node, boolean[] queued, IntColumn next, int nextWork) {
+		if (queued[node] || !alive[node])
+			return nextWork;
+		queued[node] = true;
+		next.set(nextWork, node);
+		return nextWork + 1;
+	}
+
+	private void performCut(int start, int middle, int end) {
+		boolean adjacentAlready = slotOf(start, end) >= 0;
+		redirect(start, middle, end, adjacentAlready);
+		redirect(end, middle, start, adjacentAlready);
+		for (int e = offsets.get(middle); e < offsets.get(middle + 1); e++)
+			rowTargets.set(e, -1);
+		degree.set(middle, 0);
+		alive[middle] = false;
+	}
+
+	private void redirect(int row, int from, int to, boolean drop) {
+		int slot = slotOf(row, from);
+		if (drop) {
+			rowTargets.set(slot, -1);
+			degree.set(row, degree.get(row) - 1);
+		} else {
+			rowTargets.set(slot, to);
+		}
+	}
+
+	private int slotOf(int row, int target) {
+		for (int e = offsets.get(row); e < offsets.get(row + 1); e++) {
+			if (rowTargets.get(e) == target)
+				return e;
+		}
+		return -1;
+	}
+
+	boolean[] getAlive() {
+		return alive;
+	}
+
+	IntColumn getRowTargets() {
+		return rowTargets;
+	}
+}
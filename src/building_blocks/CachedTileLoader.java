@@ -0,0 +1,73 @@
+package building_blocks;
+
+import ifaces.TileLoader;
+import session.ShotRowCounts;
+
+/**
+ * serves tiles from the snapshot cache, loads and stores the missing or stale
+ * ones through the delegate
+ *
+ * counts null trusts the cache as it is, no database at all for cached shots
+ */
+public class CachedTileLoader implements TileLoader {
+
+	private final TileLoader delegate;
+	private final TileSnapshotCache cache;
+	private final ShotRowCounts counts;
+	private int hits = 0;
+	private int misses = 0;
+
+	public CachedTileLoader(TileLoader delegate, TileSnapshotCache cache, ShotRowCounts counts) {
+		this.delegate = delegate;
+		this.cache = cache;
+		this.counts = counts;
+	}
+
+	@Override
+	public Tile loadTile(int shotId) {
+		if (isCached(shotId)) {
+			hits++;
+			return cache.read(shotId);
+		}
+		misses++;
+		Tile tile = delegate.loadTile(shotId);
+		store(tile);
+		return tile;
+	}
+
+	/**
+	 * a tile loaded elsewhere (bulk stream), stored when the cache has no
+	 * valid snapshot of it
+	 */
+	public Tile passThrough(Tile tile) {
+		if (isCached(tile.getShotId())) {
+			hits++;
+		} else {
+			misses++;
+			store(tile);
+		}
+		return tile;
+	}
+
+	public boolean isCached(int shotId) {
+		return counts == null ? cache.contains(shotId)
+				: cache.isValid(shotId, counts.getNodeRows(shotId), counts.getAdjacencyRows(shotId),
+						counts.getBackEdgeRows(shotId));
+	}
+
+	private void store(Tile tile) {
+		int shotId = tile.getShotId();
+		// hibernate does not tell what it read, the database counts stand in
+		if (tile.getAdjacencyRows() < 0 && counts != null)
+			tile.setRowCounts(counts.getAdjacencyRows(shotId), counts.getBackEdgeRows(shotId));
+		cache.write(tile);
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,118 @@
+package building_blocks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import entity.NodeEntity;
+import ifaces.TileLoader;
+import ifaces.TileSource;
+import session.JdbcTileSource;
+import session.ShotRowCounts;
+
+/**
+ * any source behind the snapshot cache, stale or missing shots go to the
+ * delegate and are stored, the manifest is written on close
+ *
+ * Iterating a bulk JDBC source: all shots cached, the snapshots are read
+ * and the database is not touched; otherwise the bulk stream is iterated
+ * as it is, stale or missing shots stored on the way, cached ones read
+ * from the stream anyway (it scans the whole region regardless).
+ */
+public class CachedTileSource implements TileSource {
+
+	private final TileSource delegate;
+	private final TileSnapshotCache cache;
+	private final ShotRowCounts counts;
+	private final List<CachedTileLoader> loaders = new ArrayList<CachedTileLoader>();
+
+	public CachedTileSource(TileSource delegate, TileSnapshotCache cache, ShotRowCounts counts) {
+		this.delegate = delegate;
+		this.cache = cache;
+		this.counts = counts;
+	}
+
+	@Override
+	public String getName() {
+		return "cached " + delegate.getName();
+	}
+
+	@Override
+	public int getNmbOfShots() {
+		return delegate.getNmbOfShots();
+	}
+
+	@Override
+	public TileLoader newLoader() {
+		return newCachedLoader();
+	}
+
+	private synchronized CachedTileLoader newCachedLoader() {
+		CachedTileLoader loader = new CachedTileLoader(delegate.newLoader(), cache, counts);
+		loaders.add(loader);
+		return loader;
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		final CachedTileLoader loader = newCachedLoader();
+		if (!isBulk() || allCached(loader))
+			return new ShotIterator(loader, getNmbOfShots());
+		final Iterator<Tile> stream = delegate.iterator();
+		final int nmbOfShots = getNmbOfShots();
+		return new Iterator<Tile>() {
+			private int nextShot = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (stream.hasNext())
+					return true;
+				skipTo(nmbOfShots);
+				return false;
+			}
+
+			@Override
+			public Tile next() {
+				Tile tile = stream.next();
+				skipTo(tile.getShotId());
+				nextShot = tile.getShotId() + 1;
+				return loader.passThrough(tile);
+			}
+
+			// shots without nodes the stream skips, stored empty as the
+			// shot by shot path stores them
+			private void skipTo(int shot) {
+				for (; nextShot < shot; nextShot++) {
+					Tile empty = new Tile(nextShot, new ArrayList<NodeEntity>());
+					empty.setRowCounts(0, 0);
+					loader.passThrough(empty);
+				}
+			}
+		};
+	}
+
+	private boolean isBulk() {
+		return delegate instanceof JdbcTileSource && ((JdbcTileSource) delegate).isBulk();
+	}
+
+	private boolean allCached(CachedTileLoader loader) {
+		for (int shot = 0; shot < getNmbOfShots(); shot++) {
+			if (!loader.isCached(shot))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		int hits = 0;
+		int misses = 0;
+		for (CachedTileLoader loader : loaders) {
+			hits += loader.getHits();
+			misses += loader.getMisses();
+		}
+		System.out.println("Snapshot cache hits: " + hits + " misses: " + misses);
+		cache.writeNmbOfShots(delegate.getNmbOfShots());
+		delegate.close();
+	}
+}
@@ -0,0 +1,347 @@
+package building_blocks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import utils.ParallelRanges;
+import utils.geospatial.Haversine;
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+import utils.store.NodeStore;
+
+/**
+ * Douglas-Peucker over maximal chains of a CompactGraph, the alternative to
+ * AlignedNodesCut.
+ *
+ * A chain runs between two junctions (degree other than 2) through degree 2
+ * nodes only, cycles made of degree 2 nodes alone are anchored at their
+ * lowest index. Junctions and anchors always stay. Each chain is simplified
+ * on its own with the tolerance in metres, in a local equirectangular
+ * projection, chains in parallel.
+ *
+ * No two edges may end up between the same pair of nodes: a chain collapsing
+ * to a single edge keeps its farthest node when its ends are adjacent
+ * already or another chain collapsed onto the same pair, a loop keeps at
+ * least two nodes besides its anchor.
+ *
+ * Chains and their fallbacks are columns of the store, freed once the
+ * target slots are relinked; keep and visited flags and the pairs of
+ * collapsed chains stay on the heap.
+ */
+class ChainSimplification {
+
+	private final NodeStore store;
+	private final int size;
+	private final IntColumn offsets;
+	private final IntColumn targets;
+	private final IntColumn rowTargets;
+	private final DoubleColumn lats;
+	private final DoubleColumn lons;
+	private final boolean[] keep;
+	private final int threads;
+
+	// chain c is chainNodes[chainOffsets[c] .. chainOffsets[c + 1]), both ends included
+	private IntColumn chainNodes;
+	private IntColumn chainOffsets;
+	private int nmbOfChains;
+
+	ChainSimplification(CompactGraph graph, int threads) {
+		this.threads = threads;
+		this.store = CompactGraph.store();
+		this.size = graph.getSize();
+		this.offsets = graph.offsets();
+		this.targets = graph.targets();
+		this.rowTargets = store.copyOf(targets, graph.getEdgeSize());
+		this.lats = graph.lats();
+		this.lons = graph.lons();
+		this.keep = new boolean[size];
+	}
+
+	/**
+	 * @return nodes removed
+	 */
+	int simplify(final double toleranceM) {
+		extractChains();
+		final IntColumn fallback = store.ints(nmbOfChains);
+		ParallelRanges.run("simplify", nmbOfChains, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				int[] stack = new int[64];
+				for (int c = from; c < to; c++) {
+					stack = simplifyChain(c, toleranceM, fallback, stack);
+				}
+			}
+		});
+		// chains collapsed onto one edge, in chain order
+		Set<Long> collapsed = new HashSet<Long>();
+		for (int c = 0; c < nmbOfChains; c++) {
+			int first = chainOffsets.get(c);
+			int last = chainOffsets.get(c + 1) - 1;
+			if (fallback.get(c) < 0)
+				continue;
+			int a = chainNodes.get(first);
+			int b = chainNodes.get(last);
+			long pair = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+			if (isAdjacent(a, b) || !collapsed.add(pair))
+				keep[fallback.get(c)] = true;
+		}
+		ParallelRanges.run("relink", nmbOfChains, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int c = from; c < to; c++)
+					relink(c);
+			}
+		});
+		store.free(fallback);
+		store.free(chainNodes);
+		store.free(chainOffsets);
+		int removed = 0;
+		for (int i = 0; i < size; i++) {
+			if (!keep[i])
+				removed++;
+		}
+		System.out.println("SIMPLIFY: chains: " + nmbOfChains + " tolerance m: " + toleranceM + " removed: "
+				+ removed);
+		return removed;
+	}
+
+	/**
+	 * maximal chains from every junction, then the cycles nothing reached
+	 */
+	private void extractChains() {
+		boolean[] visited = new boolean[size];
+		chainNodes = store.ints(size + 16);
+		chainOffsets = store.ints(16);
+		int written = 0;
+		nmbOfChains = 0;
+		for (int i = 0; i < size; i++) {
+			if (degree(i) != 2)
+				keep[i] = true;
+		}
+		for (int j = 0; j < size; j++) {
+			if (!keep[j])
+				continue;
+			for (int e = offsets.get(j); e < offsets.get(j + 1); e++) {
+				int next = targets.get(e);
+				if (keep[next] || visited[next])
+					continue;
+				written = startChain(written, j);
+				int previous = j;
+				int current = next;
+				while (!keep[current]) {
+					visited[current] = true;
+					written = append(written, current);
+					int step = other(current, previous);
+					previous = current;
+					current = step;
+				}
+				written = append(written, current);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (keep[i] || visited[i])
+				continue;
+			// i is the lowest index of its cycle
+			keep[i] = true;
+			visited[i] = true;
+			written = startChain(written, i);
+			int previous = i;
+			int current = targets.get(offsets.get(i));
+			while (current != i) {
+				visited[current] = true;
+				written = append(written, current);
+				int step = other(current, previous);
+				previous = current;
+				current = step;
+			}
+			written = append(written, i);
+		}
+		if (nmbOfChains + 1 >= chainOffsets.length())
+			chainOffsets = grow(chainOffsets, nmbOfChains + 1);
+		chainOffsets.set(nmbOfChains, written);
+	}
+
+	private int startChain(int written, int first) {
+		if (nmbOfChains + 1 >= chainOffsets.length())
+			chainOffsets = grow(chainOffsets, chainOffsets.length() * 2);
+		chainOffsets.set(nmbOfChains++, written);
+		return append(written, first);
+	}
+
+	private int append(int written, int node) {
+		if (written == chainNodes.length())
+			chainNodes = grow(chainNodes, chainNodes.length() + chainNodes.length() / 2);
+		chainNodes.set(written, node);
+		return written + 1;
+	}
+
+	private IntColumn grow(IntColumn column, int length) {
+		IntColumn grown = store.copyOf(column, length);
+		store.free(column);
+		return grown;
+	}
+
+	/**
+	 * interior nodes of chain c marked in keep
+	 *
+	 * @return the stack, grown if needed
+	 */
+	private int[] simplifyChain(int c, double toleranceM, IntColumn fallback, int[] stack) {
+		int first = chainOffsets.get(c);
+		int last = chainOffsets.get(c + 1) - 1;
+		fallback.set(c, -1);
+		if (last - first < 2)
+			return stack;
+		if (chainNodes.get(first) == chainNodes.get(last)) {
+			// loop, split at the node farthest from the anchor first
+			int anchor = chainNodes.get(first);
+			int split = first + 1;
+			double max = -1;
+			for (int k = first + 1; k < last; k++) {
+				double d = planeDistance(anchor, chainNodes.get(k));
+				if (d > max) {
+					max = d;
+					split = k;
+				}
+			}
+			keep[chainNodes.get(split)] = true;
+			int[] farthest = new int[2];
+			stack = douglasPeucker(first, split, toleranceM, stack, farthest, 0);
+			stack = douglasPeucker(split, last, toleranceM, stack, farthest, 1);
+			int kept = 0;
+			for (int k = first + 1; k < last; k++) {
+				if (keep[chainNodes.get(k)])
+					kept++;
+			}
+			if (kept < 2)
+				keep[chainNodes.get(farthest[0] >= 0 ? farthest[0] : farthest[1])] = true;
+			return stack;
+		}
+		int[] farthest = new int[1];
+		stack = douglasPeucker(first, last, toleranceM, stack, farthest, 0);
+		boolean anyKept = false;
+		for (int k = first + 1; k < last && !anyKept; k++)
+			anyKept = keep[chainNodes.get(k)];
+		if (!anyKept)
+			fallback.set(c, chainNodes.get(farthest[0]));
+		return stack;
+	}
+
+	/**
+	 * iterative, keeps in (from, to) what lies farther than toleranceM from
+	 * the simplified line
+	 *
+	 * @param farthest farthest[slot] set to the position farthest from the
+	 *                 segment from - to, -1 when there is nothing between
+	 */
+	private int[] douglasPeucker(int from, int to, double toleranceM, int[] stack, int[] farthest, int slot) {
+		farthest[slot] = -1;
+		int top = 0;
+		stack[top++] = from;
+		stack[top++] = to;
+		boolean outermost = true;
+		while (top > 0) {
+			int b = stack[--top];
+			int a = stack[--top];
+			int split = -1;
+			double max = -1;
+			for (int k = a + 1; k < b; k++) {
+				double d = segmentDistance(chainNodes.get(a), chainNodes.get(b), chainNodes.get(k));
+				if (d > max) {
+					max = d;
+					split = k;
+				}
+			}
+			if (outermost) {
+				farthest[slot] = split;
+				outermost = false;
+			}
+			if (split < 0 || max <= toleranceM)
+				continue;
+			keep[chainNodes.get(split)] = true;
+			if (top + 4 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[top++] = a;
+			stack[top++] = split;
+			stack[top++] = split;
+			stack[top++] = b;
+		}
+		return stack;
+	}
+
+	/**
+	 * between consecutive kept nodes of chain c, the slots towards the
+	 * dropped ones turned into the new edge
+	 */
+	private void relink(int c) {
+		int first = chainOffsets.get(c);
+		int last = chainOffsets.get(c + 1) - 1;
+		int previous = first;
+		for (int k = first + 1; k <= last; k++) {
+			if (k < last && !keep[chainNodes.get(k)])
+				continue;
+			if (k - previous > 1) {
+				int p = chainNodes.get(previous);
+				int q = chainNodes.get(k);
+				rowTargets.set(slotOf(p, chainNodes.get(previous + 1)), q);
+				rowTargets.set(slotOf(q, chainNodes.get(k - 1)), p);
+			}
+			previous = k;
+		}
+	}
+
+	/**
+	 * metres from node k to the segment a - b, projected around a
+	 */
+	private double segmentDistance(int a, int b, int k) {
+		double latA = lats.get(a);
+		double lonA = lons.get(a);
+		double cos = Math.cos(Math.toRadians(latA));
+		double bx = Math.toRadians(lons.get(b) - lonA) * cos * Haversine.EQUAT_EARTH_RADIUS_M;
+		double by = Math.toRadians(lats.get(b) - latA) * Haversine.EQUAT_EARTH_RADIUS_M;
+		double kx = Math.toRadians(lons.get(k) - lonA) * cos * Haversine.EQUAT_EARTH_RADIUS_M;
+		double ky = Math.toRadians(lats.get(k) - latA) * Haversine.EQUAT_EARTH_RADIUS_M;
+		double lengthSq = bx * bx + by * by;
+		double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, (kx * bx + ky * by) / lengthSq));
+		double dx = kx - t * bx;
+		double dy = ky - t * by;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private double planeDistance(int a, int k) {
+		return segmentDistance(a, a, k);
+	}
+
+	private int degree(int i) {
+		return offsets.get(i + 1) - offsets.get(i);
+	}
+
+	/**
+	 * the neighbour of degree 2 node i that is not from
+	 */
+	private int other(int i, int from) {
+		int t = targets.get(offsets.get(i));
+		return t != from ? t : targets.get(offsets.get(i) + 1);
+	}
+
+	private boolean isAdjacent(int a, int b) {
+		return targets.binarySearch(offsets.get(a), offsets.get(a + 1), b) >= 0;
+	}
+
+	private int slotOf(int row, int target) {
+		for (int e = offsets.get(row); e < offsets.get(row + 1); e++) {
+			if (targets.get(e) == target)
+				return e;
+		}
+		throw new RuntimeException("HALT no slot of " + target + " in row " + row);
+	}
+
+	boolean[] getKeep() {
+		return keep;
+	}
+
+	IntColumn getRowTargets() {
+		return rowTargets;
+	}
+}
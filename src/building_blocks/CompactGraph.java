@@ -0,0 +1,840 @@
+package building_blocks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import core.App;
+import entity.NodeEntity;
+import utils.geospatial.SpatialGrid;
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+import utils.store.LongColumn;
+import utils.store.NodeStore;
+import utils.store.ShortColumn;
+
+/**
+ * Frozen compressed sparse row form of the Graph for everything after merge.
+ *
+ * Nodes are int indices, attributes live in primitive columns, adjacents of
+ * node i are targets[offsets[i] .. offsets[i + 1]), sorted ascending. Stages
+ * that change the topology (prune, cut, renumber) compact into new columns,
+ * nothing is ever inserted. Columns come from the NodeStore set with
+ * setStore(), on heap or off heap, so does the per node scratch of the
+ * stages: prune labels (and union-find parents off heap), the index maps of
+ * retain and permute, the sort keys of renumber, the worklists of the cut
+ * and the chains of simplification. Columns a stage replaces or is done
+ * with are freed right away, not left to the GC.
+ *
+ * What stays on the heap whatever the store, per node and only while its
+ * stage runs: flags, a byte each, one for retain, four for the cut, two
+ * for simplification, one for seeding in kClusters; the spatial index,
+ * about 5 bytes, and with App.PRUNED_SEEDING the cells of FarthestCells,
+ * about 11, for as long as they are kept. Before freeze() the
+ * NodeEntity graph of merge and rebuild is on the heap in full, so a region
+ * larger than the heap only gets through the stages when read back from a
+ * checkpoint or graph state, which go straight into the store.
+ */
+public class CompactGraph {
+
+	static final int PRUNE_THRESHOLD = 200;
+	private static final int MAGIC = 0x43535247; // CSRG
+	private static final int VERSION = 2;
+	private static final int NMB_OF_STATS = 9;
+	private static final int HEADER_BYTES = (5 + NMB_OF_STATS) * 4;
+	private static final int FLAG_RENUMBERED = 1;
+	private static final int SPATIAL_INDEX_NODES_PER_CELL = 8;
+	private static final int IO_BUFFER_BYTES = 1 << 20;
+
+	private static NodeStore store = NodeStore.heap();
+
+	private int size;
+	private LongColumn ids;
+	private DoubleColumn lats;
+	private DoubleColumn lons;
+	private ShortColumn weights;
+	private ShortColumn elevs;
+	private IntColumn clusters;
+	private IntColumn offsets; // size + 1
+	private IntColumn targets;
+	private boolean renumbered = false;
+	private ComponentLabeling components; // as found by prune
+	private int[] cutsPerPass; // as found by contractAlignedNodes
+	private double simplifyToleranceM = 0; // when cut by simplifyChains
+	private SpatialGrid spatialIndex; // built on demand, kept by permute(), dropped by retain()
+	private boolean sharesColumns = false; // with the graph of subgraph(), until its retain
+
+	// stats, carried over from the Graph it was frozen from
+	private int rawSize;
+	private int mergedSize;
+	private int edgeSizeNoMerge;
+	private int edgeSizeAfterMerge;
+	private int edgeSizeAfterPrune;
+	private int edgeSizeAfterCut;
+	private int weightUpdated;
+	private int prunedOut;
+	private int cutOut;
+
+	/**
+	 * elevs MOCK_ELEV, clusters 0
+	 */
+	CompactGraph(LongColumn ids, DoubleColumn lats, DoubleColumn lons, ShortColumn weights, IntColumn offsets,
+			IntColumn targets) {
+		this(ids, lats, lons, weights, mockElevs(ids.length()), store.ints(ids.length()), offsets, targets);
+	}
+
+	private CompactGraph(LongColumn ids, DoubleColumn lats, DoubleColumn lons, ShortColumn weights,
+			ShortColumn elevs, IntColumn clusters, IntColumn offsets, IntColumn targets) {
+		replace(ids, lats, lons, weights, elevs, clusters, offsets, targets);
+	}
+
+	private static ShortColumn mockElevs(int size) {
+		ShortColumn elevs = store.shorts(size);
+		elevs.fill(App.MOCK_ELEV);
+		return elevs;
+	}
+
+	/**
+	 * where every CompactGraph created from now on keeps its columns, heap
+	 * by default
+	 */
+	public static void setStore(NodeStore nodeStore) {
+		store = nodeStore;
+	}
+
+	/**
+	 * the store set, stages and clustering take their per node scratch from
+	 * it as well
+	 */
+	public static NodeStore store() {
+		return store;
+	}
+
+	/**
+	 * index order is the iteration order of graph.getRetrievableDataSet(),
+	 * adjacents that are not in the dataset and references to self are dropped
+	 */
+	public static CompactGraph freeze(Graph graph) {
+		Map<NodeEntity, NodeEntity> dataSet = graph.getRetrievableDataSet();
+		int n = dataSet.size();
+		Map<NodeEntity, Integer> index = new IdentityHashMap<NodeEntity, Integer>(n);
+		LongColumn ids = store.longs(n);
+		DoubleColumn lats = store.doubles(n);
+		DoubleColumn lons = store.doubles(n);
+		ShortColumn weights = store.shorts(n);
+		IntColumn offsets = store.ints(n + 1);
+		int i = 0;
+		int slots = 0;
+		for (NodeEntity ne : dataSet.keySet()) {
+			index.put(ne, i);
+			ids.set(i, ne.getId());
+			lats.set(i, ne.getLat());
+			lons.set(i, ne.getLon());
+			weights.set(i, ne.getWeight());
+			slots += ne.getAdjacents().size();
+			i++;
+		}
+		IntColumn targets = store.ints(slots);
+		int edge = 0;
+		int dropped = 0;
+		i = 0;
+		for (NodeEntity ne : dataSet.keySet()) {
+			int rowStart = edge;
+			for (NodeEntity adj : ne.getAdjacents()) {
+				Integer t = index.get(adj);
+				if (t == null || t == i) {
+					dropped++;
+					continue;
+				}
+				targets.set(edge++, t);
+			}
+			targets.sort(rowStart, edge);
+			offsets.set(i, rowStart);
+			i++;
+		}
+		offsets.set(n, edge);
+		if (edge != targets.length())
+			targets = store.copyOf(targets, edge);
+		if (dropped > 0)
+			System.err.println("FREEZE: adjacents outside of dataset or self dropped: " + dropped);
+
+		CompactGraph compact = new CompactGraph(ids, lats, lons, weights, offsets, targets);
+		compact.rawSize = graph.getRawSize();
+		compact.mergedSize = graph.getMergedSize();
+		compact.edgeSizeNoMerge = graph.getEdgeSizeNoMerge();
+		compact.edgeSizeAfterMerge = graph.getEdgeSizeAfterMerge();
+		compact.weightUpdated = graph.getWeightUpdated();
+		return compact;
+	}
+
+	private void replace(LongColumn ids, DoubleColumn lats, DoubleColumn lons, ShortColumn weights,
+			ShortColumn elevs, IntColumn clusters, IntColumn offsets, IntColumn targets) {
+		this.size = ids.length();
+		this.ids = ids;
+		this.lats = lats;
+		this.lons = lons;
+		this.weights = weights;
+		this.elevs = elevs;
+		this.clusters = clusters;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.spatialIndex = null;
+	}
+
+	/**
+	 * keeps the nodes marked, edges to the others are gone, relative order kept
+	 *
+	 * rowTargets laid out as targets (same offsets), -1 marks a removed slot
+	 */
+	void retain(boolean[] keep, IntColumn rowTargets) {
+		IntColumn newIndex = store.ints(size);
+		int newSize = 0;
+		int newSlots = 0;
+		for (int i = 0; i < size; i++) {
+			newIndex.set(i, keep[i] ? newSize++ : -1);
+		}
+		for (int i = 0; i < size; i++) {
+			if (newIndex.get(i) < 0)
+				continue;
+			for (int e = offsets.get(i); e < offsets.get(i + 1); e++) {
+				if (rowTargets.get(e) >= 0 && newIndex.get(rowTargets.get(e)) >= 0)
+					newSlots++;
+			}
+		}
+		LongColumn newIds = store.longs(newSize);
+		DoubleColumn newLats = store.doubles(newSize);
+		DoubleColumn newLons = store.doubles(newSize);
+		ShortColumn newWeights = store.shorts(newSize);
+		ShortColumn newElevs = store.shorts(newSize);
+		IntColumn newClusters = store.ints(newSize);
+		IntColumn newOffsets = store.ints(newSize + 1);
+		IntColumn newTargets = store.ints(newSlots);
+		int edge = 0;
+		for (int i = 0; i < size; i++) {
+			int ni = newIndex.get(i);
+			if (ni < 0)
+				continue;
+			newIds.set(ni, ids.get(i));
+			newLats.set(ni, lats.get(i));
+			newLons.set(ni, lons.get(i));
+			newWeights.set(ni, weights.get(i));
+			newElevs.set(ni, elevs.get(i));
+			newClusters.set(ni, clusters.get(i));
+			int rowStart = edge;
+			for (int e = offsets.get(i); e < offsets.get(i + 1); e++) {
+				if (rowTargets.get(e) < 0)
+					continue;
+				int t = newIndex.get(rowTargets.get(e));
+				if (t >= 0)
+					newTargets.set(edge++, t);
+			}
+			newTargets.sort(rowStart, edge);
+			newOffsets.set(ni + 1, edge);
+		}
+		store.free(newIndex);
+		freeColumns();
+		replace(newIds, newLats, newLons, newWeights, newElevs, newClusters, newOffsets, newTargets);
+	}
+
+	/*
+	 * the columns retain or permute are about to replace, unless they are
+	 * still those of the graph subgraph() was taken from
+	 */
+	private void freeColumns() {
+		spatialIndex = null;
+		if (sharesColumns) {
+			sharesColumns = false;
+			return;
+		}
+		store.free(ids);
+		store.free(lats);
+		store.free(lons);
+		store.free(weights);
+		store.free(elevs);
+		store.free(clusters);
+		store.free(offsets);
+		store.free(targets);
+	}
+
+	/**
+	 * nodes marked, in the same order, this graph stays as it is
+	 */
+	public CompactGraph subgraph(boolean[] keep) {
+		CompactGraph sub = new CompactGraph(ids, lats, lons, weights, elevs, clusters, offsets, targets);
+		sub.sharesColumns = true;
+		sub.retain(keep, targets);
+		return sub;
+	}
+
+	/**
+	 * a nodes first, then b nodes, no edges in between
+	 */
+	public static CompactGraph concat(CompactGraph a, CompactGraph b) {
+		int n = a.size + b.size;
+		int edges = a.getEdgeSize();
+		LongColumn ids = store.copyOf(a.ids, n);
+		DoubleColumn lats = store.copyOf(a.lats, n);
+		DoubleColumn lons = store.copyOf(a.lons, n);
+		ShortColumn weights = store.copyOf(a.weights, n);
+		ShortColumn elevs = store.copyOf(a.elevs, n);
+		IntColumn clusters = store.copyOf(a.clusters, n);
+		IntColumn offsets = store.copyOf(a.offsets, n + 1);
+		IntColumn targets = store.copyOf(a.targets, edges + b.getEdgeSize());
+		for (int i = 0; i < b.size; i++) {
+			ids.set(a.size + i, b.ids.get(i));
+			lats.set(a.size + i, b.lats.get(i));
+			lons.set(a.size + i, b.lons.get(i));
+			weights.set(a.size + i, b.weights.get(i));
+			elevs.set(a.size + i, b.elevs.get(i));
+			clusters.set(a.size + i, b.clusters.get(i));
+			offsets.set(a.size + i + 1, edges + b.offsets.get(i + 1));
+		}
+		for (int e = 0; e < b.getEdgeSize(); e++)
+			targets.set(edges + e, a.size + b.targets.get(e));
+		return new CompactGraph(ids, lats, lons, weights, elevs, clusters, offsets, targets);
+	}
+
+	/**
+	 * every node connected to a seed, seeds included
+	 */
+	public boolean[] componentsOf(boolean[] seeds) {
+		boolean[] reached = new boolean[size];
+		int[] queue = new int[size];
+		int tail = 0;
+		for (int i = 0; i < size; i++) {
+			if (seeds[i] && !reached[i]) {
+				reached[i] = true;
+				queue[tail++] = i;
+			}
+		}
+		int head = 0;
+		while (head < tail) {
+			int curr = queue[head++];
+			for (int e = offsets.get(curr); e < offsets.get(curr + 1); e++) {
+				int adj = targets.get(e);
+				if (!reached[adj]) {
+					reached[adj] = true;
+					queue[tail++] = adj;
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * same topology, nodes reordered, node old[k] becomes node k
+	 */
+	private void permute(IntColumn old) {
+		IntColumn newIndex = store.ints(size);
+		for (int k = 0; k < size; k++)
+			newIndex.set(old.get(k), k);
+		LongColumn newIds = store.longs(size);
+		DoubleColumn newLats = store.doubles(size);
+		DoubleColumn newLons = store.doubles(size);
+		ShortColumn newWeights = store.shorts(size);
+		ShortColumn newElevs = store.shorts(size);
+		IntColumn newClusters = store.ints(size);
+		IntColumn newOffsets = store.ints(size + 1);
+		IntColumn newTargets = store.ints(getEdgeSize());
+		int edge = 0;
+		for (int k = 0; k < size; k++) {
+			int i = old.get(k);
+			newIds.set(k, ids.get(i));
+			newLats.set(k, lats.get(i));
+			newLons.set(k, lons.get(i));
+			newWeights.set(k, weights.get(i));
+			newElevs.set(k, elevs.get(i));
+			newClusters.set(k, clusters.get(i));
+			int rowStart = edge;
+			for (int e = offsets.get(i); e < offsets.get(i + 1); e++)
+				newTargets.set(edge++, newIndex.get(targets.get(e)));
+			newTargets.sort(rowStart, edge);
+			newOffsets.set(k + 1, edge);
+		}
+		SpatialGrid index = spatialIndex;
+		freeColumns();
+		replace(newIds, newLats, newLons, newWeights, newElevs, newClusters, newOffsets, newTargets);
+		if (index != null)
+			spatialIndex = index.permuted(newIndex, newLats, newLons);
+		store.free(newIndex);
+	}
+
+	/**
+	 * components smaller than PRUNE_THRESHOLD go, labelled by union-find
+	 */
+	public void prune() {
+		System.out.println("\n\nPRUNE STARTS " + System.currentTimeMillis());
+		components = ComponentLabeling.label(size, offsets, targets, App.LABELING_THREADS, store);
+		boolean[] keep = new boolean[size];
+		int pruned = 0;
+		int survived = 0;
+		for (int i = 0; i < size; i++) {
+			if (components.sizeOf(components.componentOf(i)) < PRUNE_THRESHOLD) {
+				pruned++;
+			} else {
+				keep[i] = true;
+				survived++;
+			}
+		}
+		retain(keep, targets);
+		System.out.println("PRUNE FINISHES " + System.currentTimeMillis());
+		System.out.println("PRUNE results: survived: " + survived + " pruned: " + pruned);
+		this.prunedOut = pruned;
+		this.edgeSizeAfterPrune = getEdgeSize();
+	}
+
+	/**
+	 * aligned nodes cut until nothing more can be cut
+	 *
+	 * @return cuts per pass
+	 */
+	public int[] contractAlignedNodes() {
+		AlignedNodesCut cut = new AlignedNodesCut(this, App.CUT_THREADS);
+		int[] perPass = cut.cutToFixedPoint();
+		for (int c : perPass)
+			cutOut += c;
+		retain(cut.getAlive(), cut.getRowTargets());
+		store.free(cut.getRowTargets());
+		this.edgeSizeAfterCut = getEdgeSize();
+		this.cutsPerPass = perPass;
+		return perPass;
+	}
+
+	/**
+	 * Douglas-Peucker over maximal degree 2 chains instead of the aligned
+	 * nodes cut, junctions stay
+	 *
+	 * @return nodes removed
+	 */
+	public int simplifyChains(double toleranceM) {
+		ChainSimplification simplification = new ChainSimplification(this, App.CUT_THREADS);
+		int removed = simplification.simplify(toleranceM);
+		cutOut += removed;
+		retain(simplification.getKeep(), simplification.getRowTargets());
+		store.free(simplification.getRowTargets());
+		this.edgeSizeAfterCut = getEdgeSize();
+		this.simplifyToleranceM = toleranceM;
+		return removed;
+	}
+
+	/**
+	 * sorted by original id, equal ids in index order, afterwards index ==
+	 * output id
+	 *
+	 * One primitive sort of (id, index) packed into longs, the id taken
+	 * relative to the lowest one, or its rank among the ids when they lie too
+	 * far apart to leave the low bits to the index.
+	 */
+	public void renumber() {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1));
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			min = Math.min(min, ids.get(i));
+			max = Math.max(max, ids.get(i));
+		}
+		long span = max - min;
+		LongColumn keys = store.longs(size);
+		if (span >= 0 && (span >>> (63 - bits)) == 0) {
+			for (int i = 0; i < size; i++)
+				keys.set(i, ((ids.get(i) - min) << bits) | i);
+		} else {
+			LongColumn sorted = store.copyOf(ids, size);
+			sorted.sort();
+			// equal ids find the same slot, the search path depends on the key only
+			for (int i = 0; i < size; i++)
+				keys.set(i, ((long) sorted.binarySearch(ids.get(i)) << bits) | i);
+			store.free(sorted);
+		}
+		keys.sort();
+		long mask = (1L << bits) - 1;
+		IntColumn old = store.ints(size);
+		for (int k = 0; k < size; k++)
+			old.set(k, (int) (keys.get(k) & mask));
+		store.free(keys);
+		permute(old);
+		store.free(old);
+		for (int k = 0; k < size; k++)
+			ids.set(k, k);
+		renumbered = true;
+	}
+
+	/**
+	 * big endian, written to a temp file and renamed
+	 *
+	 *   header   int magic, int version, int size, int edges, int flags,
+	 *            int[9] stats
+	 *   long[]   ids, double[] lats, double[] lons, short[] weights,
+	 *   short[]  elevs, int[] clusters, int[] offsets (size + 1), int[] targets
+	 */
+	public void write(File file) {
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				Output out = new Output(fos.getChannel());
+				out.putInt(MAGIC);
+				out.putInt(VERSION);
+				out.putInt(size);
+				out.putInt(getEdgeSize());
+				out.putInt(renumbered ? FLAG_RENUMBERED : 0);
+				int[] stats = { rawSize, mergedSize, edgeSizeNoMerge, edgeSizeAfterMerge, edgeSizeAfterPrune,
+						edgeSizeAfterCut, weightUpdated, prunedOut, cutOut };
+				for (int stat : stats)
+					out.putInt(stat);
+				for (int i = 0; i < size; i++)
+					out.putLong(ids.get(i));
+				for (int i = 0; i < size; i++)
+					out.putDouble(lats.get(i));
+				for (int i = 0; i < size; i++)
+					out.putDouble(lons.get(i));
+				for (int i = 0; i < size; i++)
+					out.putShort(weights.get(i));
+				for (int i = 0; i < size; i++)
+					out.putShort(elevs.get(i));
+				for (int i = 0; i < size; i++)
+					out.putInt(clusters.get(i));
+				for (int i = 0; i <= size; i++)
+					out.putInt(offsets.get(i));
+				for (int e = 0; e < getEdgeSize(); e++)
+					out.putInt(targets.get(e));
+				out.flush();
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while writing compact graph " + file);
+		}
+		if (file.exists() && !file.delete())
+			throw new RuntimeException("HALT cannot replace compact graph " + file);
+		if (!temp.renameTo(file))
+			throw new RuntimeException("HALT cannot rename compact graph " + temp);
+	}
+
+	/**
+	 * version 1 files, without flags and stats, are read as well, into the
+	 * current store
+	 */
+	public static CompactGraph read(File file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				Input in = new Input(raf.getChannel());
+				if (in.getInt() != MAGIC)
+					throw new RuntimeException("HALT corrupted compact graph " + file);
+				int version = in.getInt();
+				if (version != 1 && version != VERSION)
+					throw new RuntimeException("HALT unknown version " + version + " of compact graph " + file);
+				int n = in.getInt();
+				int edges = in.getInt();
+				int flags = 0;
+				int[] stats = new int[NMB_OF_STATS];
+				if (version == VERSION) {
+					flags = in.getInt();
+					for (int s = 0; s < NMB_OF_STATS; s++)
+						stats[s] = in.getInt();
+				}
+				LongColumn ids = store.longs(n);
+				DoubleColumn lats = store.doubles(n);
+				DoubleColumn lons = store.doubles(n);
+				ShortColumn weights = store.shorts(n);
+				ShortColumn elevs = store.shorts(n);
+				IntColumn clusters = store.ints(n);
+				IntColumn offsets = store.ints(n + 1);
+				IntColumn targets = store.ints(edges);
+				for (int i = 0; i < n; i++)
+					ids.set(i, in.getLong());
+				for (int i = 0; i < n; i++)
+					lats.set(i, in.getDouble());
+				for (int i = 0; i < n; i++)
+					lons.set(i, in.getDouble());
+				for (int i = 0; i < n; i++)
+					weights.set(i, in.getShort());
+				for (int i = 0; i < n; i++)
+					elevs.set(i, in.getShort());
+				for (int i = 0; i < n; i++)
+					clusters.set(i, in.getInt());
+				for (int i = 0; i <= n; i++)
+					offsets.set(i, in.getInt());
+				for (int e = 0; e < edges; e++)
+					targets.set(e, in.getInt());
+				CompactGraph compact = new CompactGraph(ids, lats, lons, weights, elevs, clusters, offsets,
+						targets);
+				compact.renumbered = (flags & FLAG_RENUMBERED) != 0;
+				compact.rawSize = stats[0];
+				compact.mergedSize = stats[1];
+				compact.edgeSizeNoMerge = stats[2];
+				compact.edgeSizeAfterMerge = stats[3];
+				compact.edgeSizeAfterPrune = stats[4];
+				compact.edgeSizeAfterCut = stats[5];
+				compact.weightUpdated = stats[6];
+				compact.prunedOut = stats[7];
+				compact.cutOut = stats[8];
+				return compact;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while reading compact graph " + file);
+		}
+	}
+
+	/**
+	 * big endian values through one buffer, a graph of any size streams
+	 * through it
+	 */
+	private static class Output {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		void putInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+		}
+
+		void putLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+		}
+
+		void putDouble(double v) throws IOException {
+			ensure(8);
+			buffer.putDouble(v);
+		}
+
+		void putShort(short v) throws IOException {
+			ensure(2);
+			buffer.putShort(v);
+		}
+	}
+
+	private static class Input {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+
+		Input(FileChannel channel) {
+			this.channel = channel;
+			buffer.flip();
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0)
+					throw new IOException("unexpected end of compact graph");
+			}
+			buffer.flip();
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return buffer.getInt();
+		}
+
+		long getLong() throws IOException {
+			ensure(8);
+			return buffer.getLong();
+		}
+
+		double getDouble() throws IOException {
+			ensure(8);
+			return buffer.getDouble();
+		}
+
+		short getShort() throws IOException {
+			ensure(2);
+			return buffer.getShort();
+		}
+	}
+
+	/**
+	 * grid in plain degrees over the nodes as they are now, about eight a
+	 * cell, built on first use. Elevation walks it cell by cell, kClusters
+	 * seeds on it (FarthestCells); renumber (permute) carries it over to the
+	 * new indices, retain (prune, cut, simplify) drops it, a grid taken
+	 * before either holds the old indices, ask again.
+	 */
+	public SpatialGrid getSpatialIndex() {
+		if (spatialIndex == null) {
+			long start = System.currentTimeMillis();
+			spatialIndex = SpatialGrid.inDegreesByDensity(lats, lons, SPATIAL_INDEX_NODES_PER_CELL);
+			System.out.println("Spatial index: cells " + spatialIndex.getCellCount() + " cell size deg: "
+					+ spatialIndex.getCellSize() + " ms: " + (System.currentTimeMillis() - start));
+		}
+		return spatialIndex;
+	}
+
+	// accessors, node index i, edge slot e
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * directed, every undirected edge counted from both ends, as Graph counts it
+	 */
+	public int getEdgeSize() {
+		return offsets.get(size);
+	}
+
+	public long getId(int i) {
+		return ids.get(i);
+	}
+
+	public double getLat(int i) {
+		return lats.get(i);
+	}
+
+	public double getLon(int i) {
+		return lons.get(i);
+	}
+
+	public short getWeight(int i) {
+		return weights.get(i);
+	}
+
+	public short getElev(int i) {
+		return elevs.get(i);
+	}
+
+	public void setElev(int i, short elev) {
+		elevs.set(i, elev);
+	}
+
+	public int getCluster(int i) {
+		return clusters.get(i);
+	}
+
+	public void setCluster(int i, int cluster) {
+		clusters.set(i, cluster);
+	}
+
+	public int degree(int i) {
+		return offsets.get(i + 1) - offsets.get(i);
+	}
+
+	public int firstEdge(int i) {
+		return offsets.get(i);
+	}
+
+	public int endEdge(int i) {
+		return offsets.get(i + 1);
+	}
+
+	public int target(int e) {
+		return targets.get(e);
+	}
+
+	// raw columns for the stages in this package, read only; coordinates for
+	// clustering as well, valid until retain or permute replace them
+
+	IntColumn offsets() {
+		return offsets;
+	}
+
+	IntColumn targets() {
+		return targets;
+	}
+
+	public DoubleColumn lats() {
+		return lats;
+	}
+
+	public DoubleColumn lons() {
+		return lons;
+	}
+
+	LongColumn ids() {
+		return ids;
+	}
+
+	ShortColumn weights() {
+		return weights;
+	}
+
+	ShortColumn elevs() {
+		return elevs;
+	}
+
+	IntColumn clusters() {
+		return clusters;
+	}
+
+	void setMergeStats(int rawSize, int mergedSize, int edgeSizeNoMerge, int weightUpdated) {
+		this.rawSize = rawSize;
+		this.mergedSize = mergedSize;
+		this.edgeSizeNoMerge = edgeSizeNoMerge;
+		this.edgeSizeAfterMerge = getEdgeSize();
+		this.weightUpdated = weightUpdated;
+	}
+
+	public boolean isRenumbered() {
+		return renumbered;
+	}
+
+	public int getEdgeSizeAfterCut() {
+		return edgeSizeAfterCut;
+	}
+
+	/**
+	 * what the columns take, object headers left out
+	 */
+	public long estimateBytes() {
+		return (long) size * (8 + 8 + 8 + 2 + 2 + 4 + 4) + 4 + (long) getEdgeSize() * 4;
+	}
+
+	public void printStats() {
+		System.out.println("\n\n=========================================================================");
+		System.out.println("COMPACT GRAPH");
+		System.out.println("Raw number of nodes: " + rawSize);
+		System.out.println("Merged number of nodes: " + mergedSize);
+		System.out.println("EdgeSize before merge: " + edgeSizeNoMerge);
+		System.out.println("EdgeSize after merge: " + edgeSizeAfterMerge);
+		System.out.println("--");
+		System.out.println("Nodes removed by prune procedure: " + prunedOut);
+		if (components != null)
+			components.printStats();
+		System.out.println("EdgeSize after prune: " + edgeSizeAfterPrune);
+		System.out.println("--");
+		System.out.println("Nodes removed by cut procedure: " + cutOut);
+		if (cutsPerPass != null)
+			System.out.println("Cuts per pass: " + Arrays.toString(cutsPerPass));
+		if (simplifyToleranceM > 0)
+			System.out.println("Cut by chain simplification, tolerance m: " + simplifyToleranceM);
+		System.out.println("EdgeSize after cut: " + edgeSizeAfterCut);
+		System.out.println("--");
+		System.out.println("Weights updated: " + weightUpdated);
+		System.out.println("Final number of nodes: " + size);
+		System.out.println("Columns bytes: " + estimateBytes() + " per node: "
+				+ (size == 0 ? 0 : estimateBytes() / size) + " store: " + store.getKind());
+		System.out.println("=========================================================================\n");
+	}
+}
@@ -0,0 +1,181 @@
+package building_blocks;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import utils.ParallelRanges;
+import utils.store.IntColumn;
+import utils.store.NodeStore;
+
+/**
+ * Connected components over node indices, adjacency as offsets/targets.
+ *
+ * Union-find on an AtomicIntegerArray, threads take ranges of nodes and
+ * union every edge they hold. Rows need not be symmetric (the validate stage
+ * that makes them so may be disabled), an edge seen from one end only still
+ * joins its ends; the reverse edge of a symmetric pair finds both in one
+ * root already and costs two finds. A root is always linked
+ * under the lower root with a CAS, so every component ends with its lowest
+ * index as root whatever the interleaving, find() halves paths as it goes.
+ *
+ * Components are numbered in the order of their lowest node. The labels
+ * live in a column of the store given. On the heap store the parents are an
+ * AtomicIntegerArray for the CAS; off heap they are the label column itself
+ * and the union-find runs on one thread, Java 8 has no CAS on a buffer and
+ * the parents would be 4 bytes a node on the heap again.
+ */
+public class ComponentLabeling {
+
+	private final IntColumn componentOf;
+	private final int[] sizes;
+	private int largest = 0;
+	// histogram[b]: components with size in [2^b, 2^(b+1))
+	private final int[] histogram = new int[32];
+
+	private ComponentLabeling(IntColumn componentOf, int[] sizes) {
+		this.componentOf = componentOf;
+		this.sizes = sizes;
+		for (int s : sizes) {
+			if (s > largest)
+				largest = s;
+			histogram[31 - Integer.numberOfLeadingZeros(s)]++;
+		}
+	}
+
+	public static ComponentLabeling label(final int size, final IntColumn offsets, final IntColumn targets,
+			int threads, NodeStore store) {
+		final IntColumn componentOf = store.ints(size);
+		if (store.getKind() == NodeStore.Kind.HEAP)
+			findRoots(size, offsets, targets, threads, componentOf);
+		else
+			findRootsInPlace(size, offsets, targets, componentOf);
+
+		// roots are the lowest index of their component, numbered in index
+		// order; in place, a root is relabelled before any other node of its
+		// component reads it
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			int r = componentOf.get(i);
+			componentOf.set(i, r == i ? count++ : componentOf.get(r));
+		}
+		int[] sizes = new int[count];
+		for (int i = 0; i < size; i++)
+			sizes[componentOf.get(i)]++;
+		return new ComponentLabeling(componentOf, sizes);
+	}
+
+	/*
+	 * root of every node into componentOf, parents on the heap, in parallel
+	 */
+	private static void findRoots(final int size, final IntColumn offsets, final IntColumn targets, int threads,
+			final IntColumn componentOf) {
+		final AtomicIntegerArray parent = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; i++)
+			parent.set(i, i);
+
+		ParallelRanges.run("components", size, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int i = from; i < to; i++) {
+					for (int e = offsets.get(i); e < offsets.get(i + 1); e++) {
+						int t = targets.get(e);
+						if (t != i)
+							union(parent, i, t);
+					}
+				}
+			}
+		});
+
+		ParallelRanges.run("components", size, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int i = from; i < to; i++)
+					componentOf.set(i, find(parent, i));
+			}
+		});
+	}
+
+	/*
+	 * the same, componentOf is the parent array, one thread
+	 */
+	private static void findRootsInPlace(int size, IntColumn offsets, IntColumn targets, IntColumn parent) {
+		for (int i = 0; i < size; i++)
+			parent.set(i, i);
+		for (int i = 0; i < size; i++) {
+			for (int e = offsets.get(i); e < offsets.get(i + 1); e++) {
+				int t = targets.get(e);
+				if (t == i)
+					continue;
+				int ra = find(parent, i);
+				int rb = find(parent, t);
+				if (ra != rb)
+					parent.set(Math.max(ra, rb), Math.min(ra, rb));
+			}
+		}
+		for (int i = 0; i < size; i++)
+			parent.set(i, find(parent, i));
+	}
+
+	private static int find(IntColumn parent, int x) {
+		while (true) {
+			int p = parent.get(x);
+			if (p == x)
+				return x;
+			int gp = parent.get(p);
+			if (gp != p)
+				parent.set(x, gp); // path halving
+			x = gp;
+		}
+	}
+
+	private static int find(AtomicIntegerArray parent, int x) {
+		while (true) {
+			int p = parent.get(x);
+			if (p == x)
+				return x;
+			int gp = parent.get(p);
+			if (gp != p)
+				parent.compareAndSet(x, p, gp); // path halving
+			x = gp;
+		}
+	}
+
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			int ra = find(parent, a);
+			int rb = find(parent, b);
+			if (ra == rb)
+				return;
+			int low = Math.min(ra, rb);
+			int high = Math.max(ra, rb);
+			if (parent.compareAndSet(high, high, low))
+				return;
+		}
+	}
+
+	public int componentOf(int node) {
+		return componentOf.get(node);
+	}
+
+	public int sizeOf(int component) {
+		return sizes[component];
+	}
+
+	public int getCount() {
+		return sizes.length;
+	}
+
+	public int getLargest() {
+		return largest;
+	}
+
+	public void printStats() {
+		System.out.println("Components: " + sizes.length + " largest: " + largest);
+		StringBuilder sb = new StringBuilder("Component sizes:");
+		for (int b = 0; b < histogram.length; b++) {
+			if (histogram[b] > 0)
+				sb.append(" [").append(1 << b).append(", ").append((1L << (b + 1)) - 1).append("]: ")
+						.append(histogram[b]);
+		}
+		System.out.println(sb);
+	}
+}
@@ -7,7 +7,7 @@ import java.io.IOException;
 
 public class DEMReader {
 
-	private static final String PATH = "/home/radim/data/DEMData/";
+	static final String PATH = "/home/radim/data/DEMData/";
 	public static final int SIZE = 1201;
 
 	public short[] getData(String name) {
@@ -0,0 +1,101 @@
+package building_blocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import entity.NodeEntity;
+import utils.ParallelRanges;
+
+/**
+ * One sweep over the dataset, on threads, finding what fixDataset repairs:
+ *
+ *   zero degree  node without adjacents
+ *   self loop    node among its own adjacents
+ *   asymmetric   from sees to, to does not see from
+ *
+ * Nothing is copied or changed, the nodes are read in place. Repair lists
+ * are in dataset order whatever the thread count. Graph.repair() applies them.
+ */
+public class DatasetValidator {
+
+	private final List<NodeEntity> zeroDegree = new ArrayList<NodeEntity>();
+	private final List<NodeEntity> selfLoops = new ArrayList<NodeEntity>();
+	// pairs, asymmetricFrom.get(k) sees asymmetricTo.get(k) but not vice versa
+	private final List<NodeEntity> asymmetricFrom = new ArrayList<NodeEntity>();
+	private final List<NodeEntity> asymmetricTo = new ArrayList<NodeEntity>();
+	private int nodes;
+	private long edges;
+
+	private DatasetValidator() {
+	}
+
+	public static DatasetValidator validate(Map<NodeEntity, NodeEntity> dataSet, int threads) {
+		final NodeEntity[] all = dataSet.keySet().toArray(new NodeEntity[0]);
+		final DatasetValidator[] parts = new DatasetValidator[Math.max(1, threads)];
+		for (int t = 0; t < parts.length; t++)
+			parts[t] = new DatasetValidator();
+		ParallelRanges.run("validate", all.length, parts.length, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				DatasetValidator part = parts[worker];
+				for (int i = from; i < to; i++)
+					part.sweep(all[i]);
+			}
+		});
+		DatasetValidator result = new DatasetValidator();
+		for (DatasetValidator part : parts) {
+			result.zeroDegree.addAll(part.zeroDegree);
+			result.selfLoops.addAll(part.selfLoops);
+			result.asymmetricFrom.addAll(part.asymmetricFrom);
+			result.asymmetricTo.addAll(part.asymmetricTo);
+			result.edges += part.edges;
+		}
+		result.nodes = all.length;
+		return result;
+	}
+
+	private void sweep(NodeEntity n) {
+		if (n.getAdjacents() == null)
+			throw new RuntimeException("HALT validate: NULL adj:\n" + n);
+		if (n.getAdjacents().isEmpty()) {
+			zeroDegree.add(n);
+			return;
+		}
+		for (NodeEntity adj : n.getAdjacents()) {
+			edges++;
+			if (adj == n || adj.equals(n)) {
+				selfLoops.add(n);
+			} else if (!adj.getAdjacents().contains(n)) {
+				asymmetricFrom.add(n);
+				asymmetricTo.add(adj);
+			}
+		}
+	}
+
+	public boolean isValid() {
+		return zeroDegree.isEmpty() && selfLoops.isEmpty() && asymmetricFrom.isEmpty();
+	}
+
+	public List<NodeEntity> getZeroDegree() {
+		return zeroDegree;
+	}
+
+	public List<NodeEntity> getSelfLoops() {
+		return selfLoops;
+	}
+
+	public List<NodeEntity> getAsymmetricFrom() {
+		return asymmetricFrom;
+	}
+
+	public List<NodeEntity> getAsymmetricTo() {
+		return asymmetricTo;
+	}
+
+	public void print(String stageOfAlgo) {
+		System.out.println("VALIDATE, stage: " + stageOfAlgo + " nodes: " + nodes + " edges: " + edges);
+		System.out.println("zero degree: " + zeroDegree.size() + " self loops: " + selfLoops.size()
+				+ " asymmetric: " + asymmetricFrom.size());
+	}
+}
@@ -1,13 +1,14 @@
 package building_blocks;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import core.App;
@@ -16,14 +17,27 @@ import entity.VisitedStatus;
 import lib_duke.ImageResource;
 import lib_duke.LineMaker;
 import lib_duke.Pixel;
+import utils.ParallelRanges;
+import utils.QuantizedIndex;
 import utils.geospatial.Bearing;
 import utils.geospatial.Haversine;
+import utils.store.IntColumn;
+import utils.store.NodeStore;
 
 // graph format
 // https://www.dropbox.com/s/r4ixnibea713d9p/2018-01-24%2008.45.44.jpg?dl=0
 
 public class Graph {
+	// App.QUANTIZED_MERGE_INDEX, App.SINGLE_PASS_MERGE: a ShardedDataSet of one
+	// shard, keyed by quantized coordinates, no HashMap at all
 	private Map<NodeEntity, NodeEntity> retrievableDataSet = new HashMap<NodeEntity, NodeEntity>();
+	private boolean indexed = false;
+	// App.SINGLE_PASS_MERGE: adjacents not merged yet, by quantized coordinates,
+	// the nodes holding them and the key-only placeholder they hold
+	private QuantizedIndex pendingIndex;
+	private List<List<NodeEntity>> pendingOwners;
+	private List<NodeEntity> pendingPlaceholders;
+	private int pendingNull;
 	private int rawSize;
 	private int edgeSizeNoMerge;
 	private int edgeSizeAfterMerge;
@@ -34,6 +48,8 @@ public class Graph {
 	private int weightUpdated;
 	private int prunedOut;
 	private int cutOut;
+	private ComponentLabeling components; // as found by prune
+	private int[] cutsPerPass; // as found by contractAlignedNodes
 	private ImageResource visual;
 	private LineMaker line = new LineMaker(visual);
 	private App app;
@@ -41,11 +57,28 @@ public class Graph {
 	private List<NodeEntity> playRight = new ArrayList<NodeEntity>();
 	private List<NodeEntity> matchFound = new ArrayList<NodeEntity>();
 	private static final int PRUNE_THRESHOLD = 200;
-	private static final double CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST = 180.0;//metres
-	private static final double DIFF_ANGLE_BEARING_TO_NODES_CUT = 20.0;//degrees
+	static final double CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST = 180.0;//metres
+	static final double DIFF_ANGLE_BEARING_TO_NODES_CUT = 20.0;//degrees
 
 	public Graph(App app) {
+		this(app, App.QUANTIZED_MERGE_INDEX);
+	}
+
+	/**
+	 * quantizedMergeIndex in place of App.QUANTIZED_MERGE_INDEX, benchmarks
+	 * run both
+	 */
+	public Graph(App app, boolean quantizedMergeIndex) {
 		this.app = app;
+		if (quantizedMergeIndex || App.SINGLE_PASS_MERGE) {
+			retrievableDataSet = ShardedDataSet.single();
+			indexed = true;
+		}
+		if (App.SINGLE_PASS_MERGE) {
+			pendingIndex = new QuantizedIndex(1 << 12);
+			pendingOwners = new ArrayList<List<NodeEntity>>();
+			pendingPlaceholders = new ArrayList<NodeEntity>();
+		}
 		if (App.DEVELOPMENT) {
 			visual = new ImageResource(App.PIC_WIDTH_MAX_INDEX + 1, App.PIC_HEIGHT_MAX_INDEX + 1);
 		}
@@ -55,6 +88,14 @@ public class Graph {
 	 * 
 	 */
 	public void buildIn(Tile tile) {
+		if (pendingIndex != null) {
+			buildInSinglePass(tile);
+			return;
+		}
+		if (indexed) {
+			buildInIndexed(tile);
+			return;
+		}
 
 		NodeEntity nodeEntityLeft;
 		short weightLeft;
@@ -80,6 +121,118 @@ public class Graph {
 		} // for
 	}
 
+	/*
+	 * same as buildIn, one probe of the QuantizedIndex behind the dataset
+	 * finds a duplicate or takes a first seen node (also one whose
+	 * coordinates were removed meanwhile, as the HashMap would)
+	 */
+	private void buildInIndexed(Tile tile) {
+		for (NodeEntity nodeEntityRight : tile.getData()) {
+			rawSize++;
+			edgeSizeNoMerge += nodeEntityRight.getAdjacents().size();
+
+			NodeEntity nodeEntityLeft = retrievableDataSet.putIfAbsent(nodeEntityRight, nodeEntityRight);
+			if (nodeEntityLeft != null) {
+				short weightLeft = nodeEntityLeft.getWeight();
+				short weightRight = nodeEntityRight.getWeight();
+				if (weightLeft != weightRight)
+					weightUpdated++;
+				nodeEntityLeft.setWeight((short) Math.max(weightLeft, weightRight));
+			}
+		}
+	}
+
+	/*
+	 * buildIn and rebuildDataSet in one go: a first seen node gets its
+	 * adjacents mapped to merged nodes right away, adjacents not merged yet
+	 * wait in pending until a node with their coordinates comes. They wait as
+	 * a key-only placeholder (id, shotId and coordinates, no adjacents), one
+	 * per coordinates, never as a node of the tile. Nothing points into the
+	 * tile afterwards, it can go.
+	 */
+	private void buildInSinglePass(Tile tile) {
+		for (NodeEntity nodeEntityRight : tile.getData()) {
+			rawSize++;
+			edgeSizeNoMerge += nodeEntityRight.getAdjacents().size();
+
+			long key = nodeEntityRight.quantizedKey();
+			NodeEntity nodeEntityLeft = retrievableDataSet.putIfAbsent(nodeEntityRight, nodeEntityRight);
+			if (nodeEntityLeft != null) {
+				short weightLeft = nodeEntityLeft.getWeight();
+				short weightRight = nodeEntityRight.getWeight();
+				if (weightLeft != weightRight)
+					weightUpdated++;
+				nodeEntityLeft.setWeight((short) Math.max(weightLeft, weightRight));
+				continue;
+			}
+
+			Set<NodeEntity> newAdj = new HashSet<NodeEntity>();
+			for (NodeEntity currentAdj : nodeEntityRight.getAdjacents()) {
+				NodeEntity canonical = retrievableDataSet.get(currentAdj);
+				if (canonical != null) {
+					newAdj.add(canonical);
+				} else {
+					long adjKey = currentAdj.quantizedKey();
+					int slot = pendingIndex.putIfAbsent(adjKey, pendingOwners.size());
+					if (slot < 0) {
+						slot = pendingOwners.size();
+						pendingOwners.add(new ArrayList<NodeEntity>(2));
+						pendingPlaceholders.add(placeholder(currentAdj));
+					}
+					newAdj.add(pendingPlaceholders.get(slot));
+					pendingOwners.get(slot).add(nodeEntityRight);
+				}
+			}
+			nodeEntityRight.setAdjacents(newAdj);
+
+			// nodes that have been waiting for this one
+			int slot = pendingIndex.get(key);
+			if (slot >= 0 && pendingOwners.get(slot) != null) {
+				for (NodeEntity owner : pendingOwners.get(slot)) {
+					owner.getAdjacents().remove(pendingPlaceholders.get(slot));
+					owner.getAdjacents().add(nodeEntityRight);
+				}
+				pendingOwners.set(slot, null);
+				pendingPlaceholders.set(slot, null);
+			}
+		}
+	}
+
+	/*
+	 * equal to ne (same quantized coordinates), holds nothing of its tile
+	 */
+	private static NodeEntity placeholder(NodeEntity ne) {
+		NodeEntity placeholder = new NodeEntity(ne.getShotId(), ne.getLon(), ne.getLat(), (short) 0,
+				Collections.<NodeEntity>emptySet());
+		placeholder.setId(ne.getId());
+		return placeholder;
+	}
+
+	/**
+	 * single pass merge done, adjacents that never got merged are dropped,
+	 * as rebuildDataSet drops them
+	 */
+	public void finishSinglePass() {
+		for (int slot = 0; slot < pendingOwners.size(); slot++) {
+			List<NodeEntity> owners = pendingOwners.get(slot);
+			if (owners == null)
+				continue;
+			for (NodeEntity owner : owners) {
+				owner.getAdjacents().remove(pendingPlaceholders.get(slot));
+				pendingNull++;
+			}
+		}
+		pendingIndex = new QuantizedIndex(4);
+		pendingOwners = new ArrayList<List<NodeEntity>>();
+		pendingPlaceholders = new ArrayList<NodeEntity>();
+
+		System.out.println("\n\n=========================================================================");
+		System.out.println("SINGLE PASS MERGE: From left came Null in adjacents matching: " + pendingNull);
+		System.out.println("=========================================================================\n");
+
+		mergedSize = this.getDatasetSize();
+	}
+
 	/*
 	 * 
 	 */
@@ -111,6 +264,65 @@ public class Graph {
 		mergedSize = this.getDatasetSize();
 	}
 
+	/**
+	 * rebuildDataSet over threads, each node is rebuilt from its own
+	 * adjacents exactly as above, lookups only read the dataset
+	 */
+	public void rebuildDataSet(int threads) {
+		final NodeEntity[] nodes = retrievableDataSet.keySet().toArray(new NodeEntity[0]);
+		final int[] nullFromLeft = new int[threads];
+		final int[] compareSetsFalse = new int[threads];
+		ParallelRanges.run("rebuild", nodes.length, threads, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int i = from; i < to; i++) {
+					NodeEntity current = nodes[i];
+					Set<NodeEntity> newAdj = new HashSet<NodeEntity>();
+					for (NodeEntity currentAdj : current.getAdjacents()) {
+						NodeEntity definitelyFromLeft = retrievableDataSet.get(currentAdj);
+						if (definitelyFromLeft == null) {
+							nullFromLeft[worker]++;
+						} else
+							newAdj.add(definitelyFromLeft);
+					}
+					if (compareSets(newAdj, current.getAdjacents()) == false) {
+						compareSetsFalse[worker]++;
+					}
+					current.setAdjacents(newAdj);
+				}
+			}
+		});
+		int nullSum = 0;
+		int compareSum = 0;
+		for (int t = 0; t < threads; t++) {
+			nullSum += nullFromLeft[t];
+			compareSum += compareSetsFalse[t];
+		}
+
+		System.out.println("\n\n=========================================================================");
+		System.out.println("REBUILD DATASET: threads: " + threads);
+		System.out.println("REBUILD DATASET: From left came Null in adjacents matching: " + nullSum);
+		System.out.println("REBUILD DATASET: Compare sets false: " + compareSum);
+		System.out.println("=========================================================================\n");
+
+		mergedSize = this.getDatasetSize();
+	}
+
+	/**
+	 * merge done elsewhere (ShardedMerge), its shards become the dataset as
+	 * they are; lookups go by quantized coordinates, canonical() needs no
+	 * index of its own
+	 */
+	public void adoptMerged(ShardedDataSet dataSet, int rawSize, int edgeSizeNoMerge, int weightUpdated) {
+		if (!retrievableDataSet.isEmpty())
+			throw new RuntimeException("HALT adoptMerged into a non empty Graph");
+		retrievableDataSet = dataSet;
+		indexed = true;
+		this.rawSize = rawSize;
+		this.edgeSizeNoMerge = edgeSizeNoMerge;
+		this.weightUpdated = weightUpdated;
+	}
+
 	/**
 	 * if you see me, I need to see you too
 	 * https://www.dropbox.com/s/mqijzl4vwzg0zjj/2018-01-11%2010.15.46.jpg?dl=0
@@ -140,6 +352,34 @@ public class Graph {
 		return newEdges;
 	}
 	
+	/**
+	 * what DatasetValidator found, in one go, as removing the zero degree
+	 * nodes and then fixMutualVisibility did it: zero degree nodes removed,
+	 * references to self removed, missing reverse edges added. A node seeing
+	 * a removed zero degree node keeps that edge and the removed node gets
+	 * the reverse one, out of the dataset, as fixMutualVisibility gave it.
+	 *
+	 * @return reverse edges added
+	 */
+	public int repair(DatasetValidator validator) {
+		for (NodeEntity culprit : validator.getZeroDegree()) {
+			removeNodeEntity(culprit);
+		}
+		for (NodeEntity self : validator.getSelfLoops()) {
+			self.getAdjacents().remove(self);
+		}
+		int newEdges = 0;
+		for (int k = 0; k < validator.getAsymmetricFrom().size(); k++) {
+			NodeEntity left = validator.getAsymmetricFrom().get(k);
+			NodeEntity right = validator.getAsymmetricTo().get(k);
+			if (!right.getAdjacents().contains(left)) {
+				right.addToAdj(left);
+				newEdges++;
+			}
+		}
+		return newEdges;
+	}
+
 	/*
 	 * remove nodes that survived prune and are part of net structure
 	 */
@@ -161,55 +401,41 @@ public class Graph {
 	public void prune() {
 
 		System.out.println("\n\nPRUNE STARTS " + System.currentTimeMillis());
-		
-		Set<NodeEntity> tempSet = null;
-		Set<NodeEntity> toRemove = new HashSet<NodeEntity>();
-		Queue<NodeEntity> bfsQueue = null;
-		Set<NodeEntity> adj = null;
-		int pruned = 0;
-		int survived = 0;
-		// iter
-		for (NodeEntity node : retrievableDataSet.keySet()) {
-			if (node.visitedStatus == VisitedStatus.SURVIVED || node.visitedStatus == VisitedStatus.PRUNED) {
-				continue;
-			} else {
-				tempSet = new HashSet<NodeEntity>();
-				bfsQueue = new LinkedList<NodeEntity>();
-				// run BFS from node into tempSet
-				bfsQueue.add(node);
-				while (bfsQueue.isEmpty() == false) {
-					NodeEntity curr = bfsQueue.remove();
-					if (tempSet.contains(curr) == false) {
-						tempSet.add(curr);
-					}
-					adj = curr.getAdjacents();
-					for (NodeEntity adjNode : adj) {
-						if (tempSet.contains(adjNode) == false) {
-							bfsQueue.add(adjNode);
-							tempSet.add(adjNode);
-						}
-					}
-				}
+
+		// index the dataset, adjacency as offsets/targets, adjacents outside skipped
+		NodeEntity[] nodes = retrievableDataSet.keySet().toArray(new NodeEntity[0]);
+		Map<NodeEntity, Integer> index = new IdentityHashMap<NodeEntity, Integer>(nodes.length);
+		int[] offsets = new int[nodes.length + 1];
+		for (int i = 0; i < nodes.length; i++) {
+			index.put(nodes[i], i);
+			offsets[i + 1] = offsets[i] + nodes[i].getAdjacents().size();
+		}
+		int[] targets = new int[offsets[nodes.length]];
+		int edge = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			offsets[i] = edge;
+			for (NodeEntity adjNode : nodes[i].getAdjacents()) {
+				Integer t = index.get(adjNode);
+				if (t != null)
+					targets[edge++] = t;
 			}
+		}
+		offsets[nodes.length] = edge;
+		index = null;
 
-			// if tempSet.size < THRESHOLD mark all tempSet as pruned
-			// else mark all tempSet as survived
-			if (tempSet.size() < PRUNE_THRESHOLD) {
-				markBunchOfNodesWithStatus(tempSet, VisitedStatus.PRUNED);
-				pruned += tempSet.size();
-				for (NodeEntity r : tempSet){
-					assert (toRemove.contains(r) == false);
-					toRemove.add(r);
-				}
+		components = ComponentLabeling.label(nodes.length, IntColumn.wrap(offsets), IntColumn.wrap(targets),
+				App.LABELING_THREADS, NodeStore.heap());
+		int pruned = 0;
+		int survived = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (components.sizeOf(components.componentOf(i)) < PRUNE_THRESHOLD) {
+				nodes[i].visitedStatus = VisitedStatus.PRUNED;
+				retrievableDataSet.remove(nodes[i]);
+				pruned++;
 			} else {
-				markBunchOfNodesWithStatus(tempSet, VisitedStatus.SURVIVED);
-				survived += tempSet.size();
+				nodes[i].visitedStatus = VisitedStatus.SURVIVED;
+				survived++;
 			}
-		} // for
-		
-		assert(toRemove.size() == pruned);
-		for(NodeEntity r : toRemove){
-			retrievableDataSet.remove(r);
 		}
 		System.out.println("PRUNE FINISHES " + System.currentTimeMillis());
 		System.out.println("PRUNE results: survived: " + survived + " pruned: " + pruned);
@@ -221,66 +447,147 @@ public class Graph {
 	List <NodeEntity> ends = new LinkedList<NodeEntity>();
 	
 	//https://www.dropbox.com/s/le91saby0n0d7oj/2018-02-10%2016.42.56.jpg?dl=0
-	public void cutUnnecesarryAlignedNodes() {
-	
-		assert(starts.size() == 0);
-		assert(middles.size() == 0);
-		assert(ends.size() == 0);
-		
-		int cutThisRound = 0;
-		
-		for (NodeEntity ne : retrievableDataSet.keySet()) {
-			if(
-					ne.getAdjacents().size() == 2 &&
-					ne.isAvailableForCutConsideration() &&
-					allAdjacentsAreAvailableForCutConsideration(ne)
-															){
-				NodeEntity[] adj = ne.getAdjacents().toArray(new NodeEntity[2]);
-				NodeEntity start = adj[0];
-				NodeEntity middle = ne;
-				NodeEntity end = adj[1];
-				double distStMid = Haversine.haversineInM(start.getLat(), start.getLon(),
-						middle.getLat(), middle.getLon());
-				double distMidEnd = Haversine.haversineInM(middle.getLat(), middle.getLon(),
-						end.getLat(), end.getLon());
-				if((distStMid + distMidEnd) < CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST) {
-					double bearingMidSt = Bearing.getBearing(middle.getLat(), middle.getLon(),
-							start.getLat(), start.getLon());
-					double bearingMidEnd = Bearing.getBearing(middle.getLat(), middle.getLon(),
-							end.getLat(), end.getLon());
-					double pointer = bearingMidSt;
-					double pointerOponnent = (pointer + 180d) % 360d;
-					double marginLow = pointerOponnent - (DIFF_ANGLE_BEARING_TO_NODES_CUT / 2.0);
-					double marginUp = pointerOponnent + (DIFF_ANGLE_BEARING_TO_NODES_CUT / 2.0);
-					//piecut
-					double marginLowClipped = Bearing.clipDegrees(marginLow);
-					double marginUpClipped = Bearing.clipDegrees(marginUp);
-					if(
-							(bearingMidEnd > marginLowClipped && bearingMidEnd < marginUpClipped) ||
-							
-							pointerOpponentBelongsToPiecutIncludingNorth(
-									pointerOponnent,
-									marginLowClipped,
-									marginUpClipped)
-							
-							) {
-						cutOut ++;
-						cutThisRound ++;
-						starts.add(start);
-						middles.add(middle);
-						ends.add(end);
-						start.setAvailableForCutConsideration(false);
-						middle.setAvailableForCutConsideration(false);
-						end.setAvailableForCutConsideration(false);
+	/**
+	 * aligned nodes cut in passes until nothing can be cut. A pass cuts the
+	 * middle of every aligned triple whose three nodes are still available
+	 * and makes them unavailable until the next pass. The first pass goes over
+	 * the dataset, later ones only over nodes next to a cut or held back as
+	 * unavailable, in dataset order.
+	 *
+	 * @return cuts per pass
+	 */
+	public int[] contractAlignedNodes() {
+		NodeEntity[] nodes = retrievableDataSet.keySet().toArray(new NodeEntity[0]);
+		Map<NodeEntity, Integer> position = new IdentityHashMap<NodeEntity, Integer>(nodes.length);
+		for (int i = 0; i < nodes.length; i++) {
+			position.put(nodes[i], i);
+			nodes[i].setAvailableForCutConsideration(true);
+		}
+		boolean[] removed = new boolean[nodes.length];
+		boolean[] queued = new boolean[nodes.length];
+		int[] worklist = new int[nodes.length];
+		int[] next = new int[nodes.length];
+		int work = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i].getAdjacents().size() == 2)
+				worklist[work++] = i;
+		}
+		final NodeEntity[] candStart = new NodeEntity[nodes.length];
+		final NodeEntity[] candEnd = new NodeEntity[nodes.length];
+		final boolean[] aligned = new boolean[nodes.length];
+		List<Integer> perPass = new ArrayList<Integer>();
+		while (work > 0) {
+			// collinearity of all candidates on App.CUT_THREADS, adjacents only read
+			final int[] candidates = worklist;
+			final NodeEntity[] all = nodes;
+			final boolean[] gone = removed;
+			ParallelRanges.run("cut", work, App.CUT_THREADS, new ParallelRanges.Range() {
+				@Override
+				public void run(int worker, int from, int to) {
+					for (int w = from; w < to; w++) {
+						NodeEntity ne = all[candidates[w]];
+						aligned[w] = false;
+						if (gone[candidates[w]] || ne.getAdjacents().size() != 2)
+							continue;
+						NodeEntity[] adj = ne.getAdjacents().toArray(new NodeEntity[2]);
+						candStart[w] = adj[0];
+						candEnd[w] = adj[1];
+						aligned[w] = isAlignedTriple(adj[0].getLat(), adj[0].getLon(), ne.getLat(), ne.getLon(),
+								adj[1].getLat(), adj[1].getLon());
 					}
 				}
+			});
+			// selection in dataset order, a cut locks start, middle and end for the pass
+			int cutThisPass = 0;
+			int nextWork = 0;
+			for (int w = 0; w < work; w++) {
+				NodeEntity ne = nodes[worklist[w]];
+				if (removed[worklist[w]] || ne.getAdjacents().size() != 2)
+					continue;
+				if (!ne.isAvailableForCutConsideration() || !allAdjacentsAreAvailableForCutConsideration(ne)) {
+					nextWork = enqueue(worklist[w], queued, next, nextWork);
+					continue;
+				}
+				NodeEntity start = candStart[w];
+				NodeEntity middle = ne;
+				NodeEntity end = candEnd[w];
+				if (aligned[w]) {
+					cutThisPass++;
+					starts.add(start);
+					middles.add(middle);
+					ends.add(end);
+					start.setAvailableForCutConsideration(false);
+					middle.setAvailableForCutConsideration(false);
+					end.setAvailableForCutConsideration(false);
+				}
+			}
+			for (int i = 0; i < starts.size(); i++) {
+				performCut(starts.get(i), middles.get(i), ends.get(i));
+				removed[position.get(middles.get(i))] = true;
+				for (NodeEntity endpoint : new NodeEntity[] { starts.get(i), ends.get(i) }) {
+					endpoint.setAvailableForCutConsideration(true);
+					Integer p = position.get(endpoint);
+					if (p != null && !removed[p])
+						nextWork = enqueue(p, queued, next, nextWork);
+				}
 			}
+			starts.clear();
+			middles.clear();
+			ends.clear();
+			cutOut += cutThisPass;
+			System.out.println("CUT PROCEDURE: pass " + perPass.size() + " worklist: " + work + " cut: "
+					+ cutThisPass);
+			perPass.add(cutThisPass);
+
+			Arrays.sort(next, 0, nextWork);
+			for (int w = 0; w < nextWork; w++)
+				queued[next[w]] = false;
+			int[] swap = worklist;
+			worklist = next;
+			next = swap;
+			work = nextWork;
 		}
-		System.out.println("CUT PROCEDURE: this round cut: " + cutThisRound);
-		assert(starts.size() == middles.size() && middles.size() == ends.size());
-		for(int i = 0; i < starts.size(); i ++) {
-			performCut(starts.get(i), middles.get(i), ends.get(i));
+		cutsPerPass = new int[perPass.size()];
+		for (int i = 0; i < cutsPerPass.length; i++)
+			cutsPerPass[i] = perPass.get(i);
+		return cutsPerPass;
+	}
+
+	private static int enqueue(int position, boolean[] queued, int[] next, int nextWork) {
+		if (queued[position])
+			return nextWork;
+		queued[position] = true;
+		next[nextWork] = position;
+		return nextWork + 1;
+	}
+
+	/**
+	 * middle is not necessary when start - middle - end span less than
+	 * CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST and bend less than
+	 * DIFF_ANGLE_BEARING_TO_NODES_CUT
+	 */
+	static boolean isAlignedTriple(double startLat, double startLon, double middleLat, double middleLon,
+			double endLat, double endLon) {
+		double distStMid = Haversine.haversineInM(startLat, startLon, middleLat, middleLon);
+		double distMidEnd = Haversine.haversineInM(middleLat, middleLon, endLat, endLon);
+		if((distStMid + distMidEnd) < CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST) {
+			double bearingMidSt = Bearing.getBearing(middleLat, middleLon, startLat, startLon);
+			double bearingMidEnd = Bearing.getBearing(middleLat, middleLon, endLat, endLon);
+			double pointer = bearingMidSt;
+			double pointerOponnent = (pointer + 180d) % 360d;
+			double marginLow = pointerOponnent - (DIFF_ANGLE_BEARING_TO_NODES_CUT / 2.0);
+			double marginUp = pointerOponnent + (DIFF_ANGLE_BEARING_TO_NODES_CUT / 2.0);
+			//piecut
+			double marginLowClipped = Bearing.clipDegrees(marginLow);
+			double marginUpClipped = Bearing.clipDegrees(marginUp);
+			return (bearingMidEnd > marginLowClipped && bearingMidEnd < marginUpClipped) ||
+					
+					pointerOpponentBelongsToPiecutIncludingNorth(
+							pointerOponnent,
+							marginLowClipped,
+							marginUpClipped);
 		}
+		return false;
 	}
 	
 	private boolean allAdjacentsAreAvailableForCutConsideration(NodeEntity ne) {
@@ -294,7 +601,7 @@ public class Graph {
 	//this could be omitted if we give up clipping
 	//and allow angles greater than 360 degrees
 	//https://www.dropbox.com/s/flt67kez10r9xxx/2018-02-12%2018.58.47.jpg?dl=0
-	private boolean pointerOpponentBelongsToPiecutIncludingNorth(
+	private static boolean pointerOpponentBelongsToPiecutIncludingNorth(
 			
 			double pointerOpponent,
 			double marginLowClipped,
@@ -328,23 +635,6 @@ public class Graph {
 		removeNodeEntity(middle);
 	}
 	
-	public void resetCutAvailability() {
-		for (NodeEntity ne : retrievableDataSet.keySet()) {
-			ne.setAvailableForCutConsideration(true);
-		}
-		starts.clear();
-		middles.clear();
-		ends.clear();
-	}
-
-	private void markBunchOfNodesWithStatus(Iterable<NodeEntity> iterable, VisitedStatus status) {
-		Iterator<NodeEntity> i = iterable.iterator();
-		while (i.hasNext()) {
-			NodeEntity n = i.next();
-			n.visitedStatus = status;
-		}
-	}
-
 	public void computeEdgeSizeAfterMerge() {
 		this.edgeSizeAfterMerge = countAdjacents();
 	}
@@ -357,6 +647,13 @@ public class Graph {
 		this.edgeSizeAfterCut = countAdjacents();
 	}
 
+	/**
+	 * directed, counted now
+	 */
+	public int getEdgeSize() {
+		return countAdjacents();
+	}
+
 	private int countAdjacents() {
 		int count = 0;
 		for (NodeEntity current : retrievableDataSet.keySet()) {
@@ -373,6 +670,13 @@ public class Graph {
 		return retrievableDataSet;
 	}
 
+	/**
+	 * nodes go, the counters stay, after the dataset has been frozen elsewhere
+	 */
+	public void releaseDataSet() {
+		retrievableDataSet = indexed ? ShardedDataSet.single() : new HashMap<NodeEntity, NodeEntity>();
+	}
+
 	public int getRawSize() {
 		return rawSize;
 	}
@@ -381,6 +685,14 @@ public class Graph {
 		return retrievableDataSet.size();
 	}
 
+	public int getMergedSize() {
+		return mergedSize;
+	}
+
+	public int getWeightUpdated() {
+		return weightUpdated;
+	}
+
 	public int getEdgeSizeNoMerge() {
 		return edgeSizeNoMerge;
 	}
@@ -423,9 +735,13 @@ public class Graph {
 		System.out.println("EdgeSize after merge: " + this.getEdgeSizeAfterMerge());
 		System.out.println("--");
 		System.out.println("Nodes removed by prune procedure: " + this.prunedOut);
+		if (components != null)
+			components.printStats();
 		System.out.println("EdgeSize after prune: " + this.getEdgeSizeAfterPrune());
 		System.out.println("--");
 		System.out.println("Nodes removed by cut procedure: " + this.cutOut);
+		if (cutsPerPass != null)
+			System.out.println("Cuts per pass: " + Arrays.toString(cutsPerPass));
 		System.out.println("EdgeSize after cut: " + this.getEdgeSizeAfterCut());
 		System.out.println("--");
 		System.out.println("Weights updated: " + this.weightUpdated);
@@ -0,0 +1,82 @@
+package building_blocks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+/**
+ * What an incremental run starts from, under path/tableName/:
+ *
+ *   merged.graph  CompactGraph after merge, before prune, original ids
+ *   final.graph   CompactGraph after prune and cut, with elevs, not renumbered
+ *   state.txt     last shot merged
+ *
+ * state.txt is written last, a run that dies halfway leaves the previous
+ * state readable or no state at all.
+ */
+public class GraphState {
+
+	private static final String MERGED = "merged.graph";
+	private static final String FINAL = "final.graph";
+	private static final String STATE = "state.txt";
+
+	private final File directory;
+
+	public GraphState(String path, String tableName) {
+		this.directory = new File(path + File.separator + tableName);
+		if (!directory.exists() && !directory.mkdirs())
+			throw new RuntimeException("HALT cannot create state directory " + directory);
+	}
+
+	/**
+	 * @return -1 when there is no complete state
+	 */
+	public int readLastShot() {
+		File state = new File(directory, STATE);
+		if (!state.exists() || !new File(directory, MERGED).exists() || !new File(directory, FINAL).exists())
+			return -1;
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(state)));
+			try {
+				return Integer.parseInt(br.readLine().trim());
+			} finally {
+				br.close();
+			}
+		} catch (IOException | NumberFormatException | NullPointerException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	public CompactGraph readMerged() {
+		return CompactGraph.read(new File(directory, MERGED));
+	}
+
+	public CompactGraph readFinal() {
+		return CompactGraph.read(new File(directory, FINAL));
+	}
+
+	public void write(CompactGraph merged, CompactGraph finalGraph, int lastShot) {
+		if (finalGraph.isRenumbered())
+			throw new RuntimeException("HALT renumbered graph cannot be kept as state");
+		new File(directory, STATE).delete();
+		merged.write(new File(directory, MERGED));
+		finalGraph.write(new File(directory, FINAL));
+		try {
+			BufferedWriter bw = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(new File(directory, STATE))));
+			bw.write(String.valueOf(lastShot));
+			bw.newLine();
+			bw.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while writing graph state");
+		}
+		System.out.println("Graph state written to " + directory + ", last shot " + lastShot);
+	}
+}
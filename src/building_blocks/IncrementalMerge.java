@@ -0,0 +1,197 @@
+package building_blocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import entity.NodeEntity;
+import utils.QuantizedIndex;
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+import utils.store.LongColumn;
+import utils.store.NodeStore;
+import utils.store.ShortColumn;
+
+/**
+ * Tiles of new shots merged into a persisted, already merged and not yet
+ * pruned CompactGraph, with the semantics of buildIn, rebuildDataSet and
+ * fixDataset:
+ *
+ *   the first seen node stays, a duplicate only raises its weight
+ *   only first seen nodes bring their adjacents, mapped to the merged nodes,
+ *   adjacents outside of the region and references to self are dropped
+ *   every edge is made mutual, new nodes left without edges are dropped
+ *
+ * Existing nodes keep their indices, new ones are appended. Nodes that are
+ * new, got a new edge or a new weight are touched.
+ */
+public class IncrementalMerge {
+
+	private final CompactGraph base;
+	private final QuantizedIndex index;
+	private final List<NodeEntity> added = new ArrayList<NodeEntity>();
+	private final ShortColumn weights;
+	private int rawSize = 0;
+	private int edgeSizeNoMerge = 0;
+	private int weightUpdated = 0;
+	private boolean[] weightTouched;
+	private boolean[] touched;
+
+	public IncrementalMerge(CompactGraph base) {
+		this.base = base;
+		this.index = new QuantizedIndex(base.getSize());
+		for (int i = 0; i < base.getSize(); i++) {
+			index.putIfAbsent(NodeEntity.quantizedKey(base.getLon(i), base.getLat(i)), i);
+		}
+		this.weights = CompactGraph.store().copyOf(base.weights(), base.getSize());
+		this.weightTouched = new boolean[base.getSize()];
+	}
+
+	public void buildIn(Tile tile) {
+		for (NodeEntity ne : tile.getData()) {
+			rawSize++;
+			edgeSizeNoMerge += ne.getAdjacents().size();
+			int left = index.putIfAbsent(ne.quantizedKey(), base.getSize() + added.size());
+			if (left < 0) {
+				added.add(ne);
+			} else if (left < base.getSize()) {
+				if (weights.get(left) != ne.getWeight()) {
+					weightUpdated++;
+					if (ne.getWeight() > weights.get(left)) {
+						weights.set(left, ne.getWeight());
+						weightTouched[left] = true;
+					}
+				}
+			} else {
+				NodeEntity first = added.get(left - base.getSize());
+				if (first.getWeight() != ne.getWeight())
+					weightUpdated++;
+				first.setWeight((short) Math.max(first.getWeight(), ne.getWeight()));
+			}
+		}
+	}
+
+	/**
+	 * after merge(), one per node of the merged graph
+	 */
+	public boolean[] getTouched() {
+		return touched;
+	}
+
+	public int getAdded() {
+		return added.size();
+	}
+
+	public CompactGraph merge() {
+		int baseSize = base.getSize();
+		int n = baseSize + added.size();
+
+		// new edges, both directions, as pairs
+		int[] from = new int[16];
+		int[] to = new int[16];
+		int pairs = 0;
+		int dropped = 0;
+		for (int k = 0; k < added.size(); k++) {
+			int i = baseSize + k;
+			for (NodeEntity adj : added.get(k).getAdjacents()) {
+				int t = index.get(adj.quantizedKey());
+				if (t < 0 || t == i) {
+					dropped++;
+					continue;
+				}
+				if (pairs + 2 > from.length) {
+					from = Arrays.copyOf(from, from.length * 2);
+					to = Arrays.copyOf(to, to.length * 2);
+				}
+				from[pairs] = i;
+				to[pairs++] = t;
+				from[pairs] = t;
+				to[pairs++] = i;
+			}
+		}
+		if (dropped > 0)
+			System.err.println("INCREMENTAL MERGE: adjacents outside of region or self dropped: " + dropped);
+
+		// rows: old targets plus new ones, sorted, duplicates out
+		int[] extra = new int[n + 1];
+		for (int p = 0; p < pairs; p++)
+			extra[from[p] + 1]++;
+		for (int i = 0; i < n; i++)
+			extra[i + 1] += extra[i];
+		int[] extraTargets = new int[pairs];
+		int[] fill = Arrays.copyOf(extra, n);
+		for (int p = 0; p < pairs; p++)
+			extraTargets[fill[from[p]]++] = to[p];
+
+		NodeStore store = CompactGraph.store();
+		IntColumn baseOffsets = base.offsets();
+		IntColumn baseTargets = base.targets();
+		boolean[] keep = new boolean[n];
+		boolean[] touchedNodes = new boolean[n];
+		IntColumn offsets = store.ints(n + 1);
+		IntColumn targets = store.ints(base.getEdgeSize() + pairs);
+		int edge = 0;
+		for (int i = 0; i < n; i++) {
+			int rowStart = edge;
+			if (i < baseSize) {
+				for (int e = baseOffsets.get(i); e < baseOffsets.get(i + 1); e++)
+					targets.set(edge++, baseTargets.get(e));
+			}
+			for (int e = extra[i]; e < extra[i + 1]; e++)
+				targets.set(edge++, extraTargets[e]);
+			targets.sort(rowStart, edge);
+			int w = rowStart;
+			for (int e = rowStart; e < edge; e++) {
+				if (w == rowStart || targets.get(w - 1) != targets.get(e))
+					targets.set(w++, targets.get(e));
+			}
+			int oldDegree = i < baseSize ? base.degree(i) : 0;
+			edge = w;
+			offsets.set(i + 1, edge);
+			keep[i] = i < baseSize || edge > rowStart;
+			touchedNodes[i] = i >= baseSize || edge - rowStart != oldDegree || weightTouched[i];
+		}
+
+		LongColumn ids = store.copyOf(base.ids(), n);
+		DoubleColumn lats = store.copyOf(base.lats(), n);
+		DoubleColumn lons = store.copyOf(base.lons(), n);
+		ShortColumn newWeights = store.copyOf(weights, n);
+		for (int k = 0; k < added.size(); k++) {
+			NodeEntity ne = added.get(k);
+			ids.set(baseSize + k, ne.getId());
+			lats.set(baseSize + k, ne.getLat());
+			lons.set(baseSize + k, ne.getLon());
+			newWeights.set(baseSize + k, ne.getWeight());
+		}
+		CompactGraph merged = new CompactGraph(ids, lats, lons, newWeights, offsets, store.copyOf(targets, edge));
+		for (int i = 0; i < baseSize; i++) {
+			merged.setElev(i, base.getElev(i));
+			merged.setCluster(i, base.getCluster(i));
+		}
+
+		// new nodes without any edge, as fixDataset would remove them
+		int isolated = 0;
+		for (int i = baseSize; i < n; i++)
+			if (!keep[i])
+				isolated++;
+		if (isolated > 0) {
+			System.out.println("INCREMENTAL MERGE: zeroAdj nodes removed: " + isolated);
+			boolean[] touchedKept = new boolean[n - isolated];
+			int j = 0;
+			for (int i = 0; i < n; i++)
+				if (keep[i])
+					touchedKept[j++] = touchedNodes[i];
+			merged.retain(keep, merged.targets());
+			touchedNodes = touchedKept;
+		}
+		merged.setMergeStats(rawSize, merged.getSize(), edgeSizeNoMerge, weightUpdated);
+		touched = touchedNodes;
+
+		System.out.println("\n\n=========================================================================");
+		System.out.println("INCREMENTAL MERGE: raw nodes: " + rawSize + " new nodes: " + (added.size() - isolated)
+				+ " new edges: " + (merged.getEdgeSize() - base.getEdgeSize()) + " weights updated: "
+				+ weightUpdated);
+		System.out.println("=========================================================================\n");
+		return merged;
+	}
+}
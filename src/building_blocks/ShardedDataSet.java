@@ -0,0 +1,254 @@
+package building_blocks;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import entity.NodeEntity;
+import utils.QuantizedIndex;
+
+/**
+ * The Graph dataset as ShardedMerge leaves it: one QuantizedIndex and one
+ * node list per shard, a node in the shard of its quantized coordinates.
+ * The shards are the very ones the merge threads built, handing them over
+ * costs nothing; lookups go by NodeEntity.quantizedKey(), the equality of
+ * NodeEntity, never by its hashCode(). With one shard it is the dataset
+ * buildIn fills itself with App.QUANTIZED_MERGE_INDEX, putIfAbsent() is
+ * its one probe per node.
+ *
+ * Keys and values are the same node. Iteration goes shard by shard, nodes
+ * of a shard in arrival order, removed ones skipped. The order depends on
+ * the number of shards, not on the run.
+ *
+ * Reads may come from many threads, writes from one.
+ */
+public class ShardedDataSet extends AbstractMap<NodeEntity, NodeEntity> {
+
+	private final QuantizedIndex[] indexes;
+	// nodes.get(s).get(i): node of slot i of indexes[s], null once removed
+	private final List<List<NodeEntity>> nodes;
+	private int size;
+
+	ShardedDataSet(QuantizedIndex[] indexes, List<List<NodeEntity>> nodes, int size) {
+		this.indexes = indexes;
+		this.nodes = nodes;
+		this.size = size;
+	}
+
+	/**
+	 * one empty shard
+	 */
+	static ShardedDataSet single() {
+		List<List<NodeEntity>> nodes = new ArrayList<List<NodeEntity>>();
+		nodes.add(new ArrayList<NodeEntity>());
+		return new ShardedDataSet(new QuantizedIndex[] { new QuantizedIndex(1 << 16) }, nodes, 0);
+	}
+
+	static int shardOf(long key, int shards) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 33) % shards);
+	}
+
+	private int shardOf(long key) {
+		return shardOf(key, indexes.length);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public NodeEntity get(Object key) {
+		if (!(key instanceof NodeEntity))
+			return null;
+		long k = ((NodeEntity) key).quantizedKey();
+		int s = shardOf(k);
+		int i = indexes[s].get(k);
+		return i < 0 ? null : nodes.get(s).get(i);
+	}
+
+	@Override
+	public NodeEntity put(NodeEntity key, NodeEntity value) {
+		if (key != value)
+			throw new RuntimeException("HALT ShardedDataSet maps a node to itself only");
+		long k = key.quantizedKey();
+		int s = shardOf(k);
+		List<NodeEntity> shard = nodes.get(s);
+		int i = indexes[s].putIfAbsent(k, shard.size());
+		if (i < 0) {
+			shard.add(value);
+			size++;
+			return null;
+		}
+		NodeEntity old = shard.set(i, value);
+		if (old == null)
+			size++;
+		return old;
+	}
+
+	/**
+	 * @return the node already there, null when value went in (also into the
+	 *         slot of a removed node)
+	 */
+	@Override
+	public NodeEntity putIfAbsent(NodeEntity key, NodeEntity value) {
+		if (key != value)
+			throw new RuntimeException("HALT ShardedDataSet maps a node to itself only");
+		long k = key.quantizedKey();
+		int s = shardOf(k);
+		List<NodeEntity> shard = nodes.get(s);
+		int i = indexes[s].putIfAbsent(k, shard.size());
+		if (i < 0) {
+			shard.add(value);
+			size++;
+			return null;
+		}
+		NodeEntity old = shard.get(i);
+		if (old == null) {
+			shard.set(i, value);
+			size++;
+		}
+		return old;
+	}
+
+	@Override
+	public NodeEntity remove(Object key) {
+		if (!(key instanceof NodeEntity))
+			return null;
+		long k = ((NodeEntity) key).quantizedKey();
+		int s = shardOf(k);
+		int i = indexes[s].get(k);
+		if (i < 0)
+			return null;
+		NodeEntity old = nodes.get(s).set(i, null);
+		if (old != null)
+			size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		for (int s = 0; s < indexes.length; s++) {
+			indexes[s] = new QuantizedIndex(4);
+			nodes.set(s, new ArrayList<NodeEntity>());
+		}
+		size = 0;
+	}
+
+	@Override
+	public Set<NodeEntity> keySet() {
+		return new AbstractSet<NodeEntity>() {
+			@Override
+			public Iterator<NodeEntity> iterator() {
+				return new NodeIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				return ShardedDataSet.this.remove(o) != null;
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<NodeEntity, NodeEntity>> entrySet() {
+		return new AbstractSet<Map.Entry<NodeEntity, NodeEntity>>() {
+			@Override
+			public Iterator<Map.Entry<NodeEntity, NodeEntity>> iterator() {
+				final NodeIterator it = new NodeIterator();
+				return new Iterator<Map.Entry<NodeEntity, NodeEntity>>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Map.Entry<NodeEntity, NodeEntity> next() {
+						NodeEntity ne = it.next();
+						return new AbstractMap.SimpleImmutableEntry<NodeEntity, NodeEntity>(ne, ne);
+					}
+
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private class NodeIterator implements Iterator<NodeEntity> {
+		private int shard = 0;
+		private int next = -1;
+		private int lastShard = -1;
+		private int last = -1;
+
+		private NodeIterator() {
+			advance();
+		}
+
+		private void advance() {
+			next++;
+			while (shard < nodes.size()) {
+				List<NodeEntity> list = nodes.get(shard);
+				while (next < list.size() && list.get(next) == null)
+					next++;
+				if (next < list.size())
+					return;
+				shard++;
+				next = 0;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return shard < nodes.size();
+		}
+
+		@Override
+		public NodeEntity next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			NodeEntity ne = nodes.get(shard).get(next);
+			lastShard = shard;
+			last = next;
+			advance();
+			return ne;
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (nodes.get(lastShard).set(last, null) != null)
+				size--;
+			last = -1;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package building_blocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import entity.NodeEntity;
+import utils.QuantizedIndex;
+
+/**
+ * buildIn spread over shard worker threads. A node goes to the shard of its
+ * quantized coordinates, so all duplicates of a node meet in one shard, and
+ * every shard sees its nodes in arrival order. First seen node stays,
+ * weights are max merged, weightUpdated counted as buildIn counts it.
+ *
+ * finish() hands the shards over to the Graph as they are, a ShardedDataSet,
+ * no single map is filled on one thread afterwards. The nodes, weights and
+ * adjacents are those of the sequential buildIn, the iteration order of the
+ * dataset is not (see ShardedDataSet).
+ */
+public class ShardedMerge {
+
+	private static final int QUEUE_CAPACITY = 64;
+	private static final Batch POISON = new Batch(new NodeEntity[0]);
+
+	private final Shard[] shards;
+	private final Thread[] threads;
+	private volatile RuntimeException failure = null;
+	private int rawSize = 0;
+	private int edgeSizeNoMerge = 0;
+	private long routingNanos = 0;
+	private long handOverNanos = 0;
+
+	public ShardedMerge(int nmbShards) {
+		shards = new Shard[nmbShards];
+		threads = new Thread[nmbShards];
+		for (int i = 0; i < nmbShards; i++) {
+			shards[i] = new Shard();
+			threads[i] = new Thread(shards[i], "merge-shard-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	private int shardOf(long key) {
+		return ShardedDataSet.shardOf(key, shards.length);
+	}
+
+	/**
+	 * on the ingest thread, the tile is split and queued, merged later
+	 */
+	public void buildIn(Tile tile) {
+		if (failure != null)
+			throw failure;
+		long start = System.nanoTime();
+		List<NodeEntity> data = tile.getData();
+		int[] counts = new int[shards.length];
+		int[] shardOfNode = new int[data.size()];
+		int k = 0;
+		for (NodeEntity ne : data) {
+			int s = shardOf(ne.quantizedKey());
+			shardOfNode[k++] = s;
+			counts[s]++;
+			rawSize++;
+			edgeSizeNoMerge += ne.getAdjacents().size();
+		}
+		Batch[] batches = new Batch[shards.length];
+		for (int s = 0; s < shards.length; s++)
+			batches[s] = new Batch(new NodeEntity[counts[s]]);
+		int[] fill = new int[shards.length];
+		k = 0;
+		for (NodeEntity ne : data) {
+			int s = shardOfNode[k++];
+			batches[s].nodes[fill[s]++] = ne;
+		}
+		routingNanos += System.nanoTime() - start;
+		for (int s = 0; s < shards.length; s++) {
+			if (counts[s] > 0)
+				shards[s].put(batches[s]);
+		}
+	}
+
+	/**
+	 * waits for the shards, their indexes and node lists become the dataset
+	 * of graph
+	 */
+	public void finish(Graph graph) {
+		for (Shard shard : shards)
+			shard.put(POISON);
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT IN SHARDED MERGE - joining shards");
+			}
+		}
+		if (failure != null)
+			throw failure;
+
+		long start = System.nanoTime();
+		int merged = 0;
+		int weightUpdated = 0;
+		QuantizedIndex[] indexes = new QuantizedIndex[shards.length];
+		List<List<NodeEntity>> nodes = new ArrayList<List<NodeEntity>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			merged += shards[s].nodes.size();
+			weightUpdated += shards[s].weightUpdated;
+			indexes[s] = shards[s].index;
+			nodes.add(shards[s].nodes);
+		}
+		graph.adoptMerged(new ShardedDataSet(indexes, nodes, merged), rawSize, edgeSizeNoMerge, weightUpdated);
+		handOverNanos = System.nanoTime() - start;
+		printStats(merged, weightUpdated);
+	}
+
+	private void printStats(int merged, int weightUpdated) {
+		System.out.println("\n\n=========================================================================");
+		System.out.println("SHARDED MERGE: shards: " + shards.length + " raw nodes: " + rawSize + " merged: " + merged
+				+ " weights updated: " + weightUpdated);
+		System.out.println("routing on ingest thread ms: " + routingNanos / 1000000 + " hand over ms: "
+				+ handOverNanos / 1000000);
+		StringBuilder sb = new StringBuilder("per shard nodes / busy ms:");
+		for (Shard shard : shards)
+			sb.append(" ").append(shard.nodes.size()).append("/").append(shard.busyNanos / 1000000);
+		System.out.println(sb);
+		System.out.println("=========================================================================\n");
+	}
+
+	// --------------------------------------------------------------------------------------------------
+
+	private static class Batch {
+		private final NodeEntity[] nodes;
+
+		private Batch(NodeEntity[] nodes) {
+			this.nodes = nodes;
+		}
+	}
+
+	private class Shard implements Runnable {
+
+		private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+		private final QuantizedIndex index = new QuantizedIndex(1 << 14);
+		private final List<NodeEntity> nodes = new ArrayList<NodeEntity>();
+		private int weightUpdated = 0;
+		private long busyNanos = 0;
+
+		private void put(Batch batch) {
+			try {
+				while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					if (failure != null)
+						throw failure;
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT IN SHARDED MERGE - ingest interrupted");
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Batch batch = queue.take();
+					if (batch == POISON)
+						return;
+					long start = System.nanoTime();
+					for (int i = 0; i < batch.nodes.length; i++)
+						merge(batch.nodes[i]);
+					busyNanos += System.nanoTime() - start;
+				}
+			} catch (InterruptedException e) {
+				failure = new RuntimeException("HALT IN SHARDED MERGE - shard interrupted");
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				failure = e;
+			} catch (Throwable e) {
+				e.printStackTrace();
+				failure = new RuntimeException("HALT IN SHARDED MERGE - shard failed", e);
+			}
+		}
+
+		private void merge(NodeEntity nodeEntityRight) {
+			int left = index.putIfAbsent(nodeEntityRight.quantizedKey(), nodes.size());
+			if (left < 0) {
+				nodes.add(nodeEntityRight);
+			} else {
+				NodeEntity nodeEntityLeft = nodes.get(left);
+				short weightLeft = nodeEntityLeft.getWeight();
+				short weightRight = nodeEntityRight.getWeight();
+				if (weightLeft != weightRight)
+					weightUpdated++;
+				nodeEntityLeft.setWeight((short) Math.max(weightLeft, weightRight));
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package building_blocks;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import ifaces.TileLoader;
+
+/**
+ * shots 0 .. nmbOfShots - 1 one by one through a loader
+ */
+public class ShotIterator implements Iterator<Tile> {
+
+	private final TileLoader loader;
+	private final int nmbOfShots;
+	private int shot = 0;
+
+	public ShotIterator(TileLoader loader, int nmbOfShots) {
+		this.loader = loader;
+		this.nmbOfShots = nmbOfShots;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return shot < nmbOfShots;
+	}
+
+	@Override
+	public Tile next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return loader.loadTile(shot++);
+	}
+}
@@ -0,0 +1,54 @@
+package building_blocks;
+
+import java.util.Iterator;
+
+import ifaces.TileLoader;
+import ifaces.TileSource;
+
+/**
+ * offline, binary snapshots only, no database at all
+ */
+public class SnapshotTileSource implements TileSource {
+
+	private final TileSnapshotCache cache;
+	private final String path;
+
+	public SnapshotTileSource(String path, String tableName) {
+		this.cache = new TileSnapshotCache(path, tableName);
+		this.path = path;
+	}
+
+	@Override
+	public String getName() {
+		return "snapshot/" + path;
+	}
+
+	@Override
+	public int getNmbOfShots() {
+		int nmbOfShots = cache.readNmbOfShots();
+		if (nmbOfShots < 0)
+			throw new RuntimeException("HALT snapshot cache was never filled: " + path);
+		return nmbOfShots;
+	}
+
+	@Override
+	public TileLoader newLoader() {
+		return new TileLoader() {
+			@Override
+			public Tile loadTile(int shotId) {
+				if (!cache.contains(shotId))
+					throw new RuntimeException("HALT shot " + shotId + " missing in snapshot cache " + path);
+				return cache.read(shotId);
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		return new ShotIterator(newLoader(), getNmbOfShots());
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,150 @@
+package building_blocks;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import building_blocks.clustering.kClusters;
+import core.App;
+
+/**
+ * CompactGraph snapshots after each stage of the compact run, under
+ * path/tableName/ as stage-key.graph.
+ *
+ * The key of a stage is a digest of the key of the stage before it, the
+ * name of the stage and its parameters, the key of MERGE starts from the
+ * fingerprint of the input. A snapshot is therefore only found while the
+ * input and every parameter up to that stage are unchanged, a changed
+ * parameter makes the run resume right before the first stage it affects.
+ * Snapshots of other keys are left on disk and are found again once the
+ * parameters are set back.
+ *
+ * MERGE is taken after rebuild, a merged Graph before rebuild still points
+ * to non canonical adjacents and cannot be frozen. CUT holds the chain
+ * simplification instead when App.SIMPLIFY_TOLERANCE_M is set.
+ */
+public class StageCheckpoints {
+
+	// bump when a stage changes what it produces
+	private static final String STAGES_VERSION = "1";
+	private static final String EXTENSION = ".graph";
+
+	public enum Stage {
+		MERGE, PRUNE, CUT, ELEVATION, CLUSTER
+	}
+
+	private final File directory;
+	private final String[] keys = new String[Stage.values().length];
+
+	public StageCheckpoints(String path, String tableName, String inputFingerprint) {
+		this.directory = new File(path + File.separator + tableName);
+		if (!directory.exists() && !directory.mkdirs())
+			throw new RuntimeException("HALT cannot create checkpoint directory " + directory);
+		String previous = inputFingerprint;
+		for (Stage stage : Stage.values()) {
+			keys[stage.ordinal()] = new Fingerprint().add(previous).add(stage.name()).add(paramsOf(stage)).toHex();
+			previous = keys[stage.ordinal()];
+		}
+	}
+
+	/**
+	 * what the stage depends on besides the graph it gets
+	 */
+	private static String paramsOf(Stage stage) {
+		switch (stage) {
+		case MERGE:
+			return STAGES_VERSION;
+		case PRUNE:
+			return STAGES_VERSION + "|" + CompactGraph.PRUNE_THRESHOLD;
+		case CUT:
+			return STAGES_VERSION + "|" + Graph.CONSIDER_ALLIGNED_NODES_CUT_UP_TO_DIST + "|"
+					+ Graph.DIFF_ANGLE_BEARING_TO_NODES_CUT + "|" + App.SIMPLIFY_TOLERANCE_M;
+		case ELEVATION:
+			return STAGES_VERSION + "|" + DEMReader.PATH + "|" + DEMReader.SIZE;
+		case CLUSTER:
+			return STAGES_VERSION + "|" + kClusters.getParams();
+		default:
+			throw new RuntimeException("HALT unknown stage " + stage);
+		}
+	}
+
+	private File fileOf(Stage stage) {
+		return new File(directory, stage.name().toLowerCase() + "-" + keys[stage.ordinal()] + EXTENSION);
+	}
+
+	public String getKey(Stage stage) {
+		return keys[stage.ordinal()];
+	}
+
+	public boolean contains(Stage stage) {
+		return fileOf(stage).exists();
+	}
+
+	/**
+	 * @return the last stage with a snapshot under its current key, null when
+	 *         the run has to start from the input
+	 */
+	public Stage lastValid() {
+		Stage[] stages = Stage.values();
+		for (int s = stages.length - 1; s >= 0; s--) {
+			if (contains(stages[s]))
+				return stages[s];
+		}
+		return null;
+	}
+
+	public CompactGraph read(Stage stage) {
+		System.out.println("Checkpoint " + stage + " read from " + fileOf(stage));
+		return CompactGraph.read(fileOf(stage));
+	}
+
+	public void write(Stage stage, CompactGraph compact) {
+		long start = System.currentTimeMillis();
+		compact.write(fileOf(stage));
+		System.out.println("Checkpoint " + stage + " written to " + fileOf(stage) + " ms: "
+				+ (System.currentTimeMillis() - start));
+	}
+
+	/**
+	 * SHA-1 over whatever is added, as hex
+	 */
+	public static class Fingerprint {
+
+		private final MessageDigest digest;
+
+		public Fingerprint() {
+			try {
+				digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT no SHA-1");
+			}
+		}
+
+		public Fingerprint add(String value) {
+			try {
+				digest.update(value.getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT no UTF-8");
+			}
+			// separator, "ab" + "c" differs from "a" + "bc"
+			digest.update((byte) 0);
+			return this;
+		}
+
+		public Fingerprint add(long value) {
+			for (int shift = 56; shift >= 0; shift -= 8)
+				digest.update((byte) (value >>> shift));
+			return this;
+		}
+
+		public String toHex() {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest())
+				sb.append(String.format("%02x", b & 0xff));
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package building_blocks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.OperatingSystemMXBean;
+
+import ifaces.PipelineStage;
+
+/**
+ * Runs the stages of compose() one by one and records per stage
+ *
+ *   wall      ms
+ *   cpu       ms of the whole process, worker threads of parallel stages
+ *             included, GC and JIT threads as well
+ *   allocated heap bytes, all threads: heap used at the end minus heap used
+ *             at the start plus whatever GC freed in between, as GC
+ *             notifications tell. Notifications come asynchronously, at a
+ *             stage boundary the runner waits a while for the ones of
+ *             collections already counted.
+ *   nodes and edges before and after, as Sizes reports them
+ *
+ * Stages listed as disabled are not run. Only the optional ones may be
+ * disabled, the others produce what the rest of compose() reads.
+ */
+public class StagePipeline {
+
+	public static final String LOAD = "load";
+	public static final String MERGE = "merge";
+	public static final String REBUILD = "rebuild";
+	public static final String VALIDATE = "validate";
+	public static final String PRUNE = "prune";
+	public static final String CUT = "cut";
+	public static final String SIMPLIFY = "simplify";
+	public static final String RENUMBER = "renumber";
+	public static final String CLUSTER = "cluster";
+	public static final String ELEVATE = "elevate";
+	public static final String WRITE = "write";
+
+	private static final long NOTIFICATION_WAIT_MS = 200;
+	private static final Set<String> OPTIONAL = new HashSet<String>(
+			Arrays.asList(VALIDATE, PRUNE, CUT, SIMPLIFY, CLUSTER, ELEVATE, WRITE));
+
+	/**
+	 * size of whatever the pipeline currently works on
+	 */
+	public interface Sizes {
+
+		int getNodes();
+
+		int getEdges();
+	}
+
+	/**
+	 * a stage known by name, run() left to the anonymous subclass
+	 */
+	public static abstract class NamedStage implements PipelineStage {
+
+		private final String name;
+
+		public NamedStage(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	public static class StageRecord {
+		public final String name;
+		public final long wallMs;
+		public final long cpuMs;
+		public final long allocatedBytes;
+		public final int nodesIn;
+		public final int nodesOut;
+		public final int edgesIn;
+		public final int edgesOut;
+
+		StageRecord(String name, long wallMs, long cpuMs, long allocatedBytes, int nodesIn, int nodesOut, int edgesIn,
+				int edgesOut) {
+			this.name = name;
+			this.wallMs = wallMs;
+			this.cpuMs = cpuMs;
+			this.allocatedBytes = allocatedBytes;
+			this.nodesIn = nodesIn;
+			this.nodesOut = nodesOut;
+			this.edgesIn = edgesIn;
+			this.edgesOut = edgesOut;
+		}
+	}
+
+	private final Sizes sizes;
+	private final Set<String> disabled;
+	private final List<StageRecord> records = new ArrayList<StageRecord>();
+	private final AtomicLong collectedBytes = new AtomicLong();
+	private final AtomicLong notifiedCollections = new AtomicLong();
+	private final List<GarbageCollectorMXBean> collectors = new ArrayList<GarbageCollectorMXBean>();
+	private final Set<String> heapPools = new HashSet<String>();
+	private final OperatingSystemMXBean os;
+
+	public StagePipeline(Sizes sizes, String[] disabled) {
+		this.sizes = sizes;
+		this.disabled = new HashSet<String>(Arrays.asList(disabled));
+		for (String name : this.disabled) {
+			if (!OPTIONAL.contains(name))
+				throw new RuntimeException("HALT stage " + name + " cannot be disabled");
+		}
+		java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+		os = bean instanceof OperatingSystemMXBean ? (OperatingSystemMXBean) bean : null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool.getName());
+		}
+		NotificationListener listener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+					return;
+				GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+						.from((CompositeData) notification.getUserData());
+				Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+				Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+				long freed = 0;
+				for (String pool : heapPools) {
+					if (before.containsKey(pool) && after.containsKey(pool))
+						freed += before.get(pool).getUsed() - after.get(pool).getUsed();
+				}
+				collectedBytes.addAndGet(freed);
+				notifiedCollections.incrementAndGet();
+			}
+		};
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+				collectors.add(gc);
+			}
+		}
+		notifiedCollections.set(collections());
+	}
+
+	public boolean isEnabled(String name) {
+		return !disabled.contains(name);
+	}
+
+	/**
+	 * @return false when the stage is disabled and was not run
+	 */
+	public boolean run(PipelineStage stage) {
+		if (!isEnabled(stage.getName())) {
+			System.out.println("==== STAGE " + stage.getName() + " disabled");
+			return false;
+		}
+		int nodesIn = sizes.getNodes();
+		int edgesIn = sizes.getEdges();
+		long allocatedStart = allocated();
+		long cpuStart = cpuNanos();
+		long wallStart = System.nanoTime();
+
+		stage.run();
+
+		long wall = (System.nanoTime() - wallStart) / 1000000;
+		long cpu = cpuStart < 0 ? -1 : (cpuNanos() - cpuStart) / 1000000;
+		long allocatedBytes = Math.max(0, allocated() - allocatedStart);
+		StageRecord record = new StageRecord(stage.getName(), wall, cpu, allocatedBytes, nodesIn, sizes.getNodes(),
+				edgesIn, sizes.getEdges());
+		records.add(record);
+		System.out.println("==== STAGE " + record.name + " wall ms: " + record.wallMs + " cpu ms: " + record.cpuMs
+				+ " allocated: " + record.allocatedBytes + " nodes: " + record.nodesIn + " -> " + record.nodesOut
+				+ " edges: " + record.edgesIn + " -> " + record.edgesOut);
+		return true;
+	}
+
+	/**
+	 * heap bytes ever allocated, up to the last GC notification delivered
+	 */
+	private long allocated() {
+		long deadline = System.currentTimeMillis() + NOTIFICATION_WAIT_MS;
+		while (notifiedCollections.get() < collections() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT, INTERUPTED ?!");
+			}
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() + collectedBytes.get();
+	}
+
+	private long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : collectors)
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/**
+	 * -1 when the JVM does not tell
+	 */
+	private long cpuNanos() {
+		return os == null ? -1 : os.getProcessCpuTime();
+	}
+
+	public List<StageRecord> getRecords() {
+		return records;
+	}
+
+	/**
+	 * runName.json and runName.csv in directory, the same records in both
+	 */
+	public void writeReport(File directory, String runName, String dataset) {
+		if (!directory.exists() && !directory.mkdirs())
+			throw new RuntimeException("HALT cannot create report directory " + directory);
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"run\": \"").append(runName).append("\",\n  \"dataset\": \"").append(dataset)
+				.append("\",\n  \"stages\": [");
+		StringBuilder csv = new StringBuilder(
+				"run,dataset,stage,wallMs,cpuMs,allocatedBytes,nodesIn,nodesOut,edgesIn,edgesOut\n");
+		for (int i = 0; i < records.size(); i++) {
+			StageRecord r = records.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"name\": \"").append(r.name).append("\", \"wallMs\": ").append(r.wallMs)
+					.append(", \"cpuMs\": ").append(r.cpuMs).append(", \"allocatedBytes\": ").append(r.allocatedBytes)
+					.append(", \"nodesIn\": ").append(r.nodesIn).append(", \"nodesOut\": ").append(r.nodesOut)
+					.append(", \"edgesIn\": ").append(r.edgesIn).append(", \"edgesOut\": ").append(r.edgesOut)
+					.append("}");
+			csv.append(runName).append(',').append(dataset).append(',').append(r.name).append(',').append(r.wallMs)
+					.append(',').append(r.cpuMs).append(',').append(r.allocatedBytes).append(',').append(r.nodesIn)
+					.append(',').append(r.nodesOut).append(',').append(r.edgesIn).append(',').append(r.edgesOut)
+					.append('\n');
+		}
+		json.append("\n  ]\n}\n");
+		write(new File(directory, runName + ".json"), json.toString());
+		write(new File(directory, runName + ".csv"), csv.toString());
+		System.out.println("Pipeline report written to " + new File(directory, runName + ".json"));
+	}
+
+	private void write(File file, String content) {
+		try {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				bw.write(content);
+			} finally {
+				bw.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while writing pipeline report " + file);
+		}
+	}
+}
@@ -3,7 +3,6 @@ package building_blocks;
 import java.util.List;
 
 import entity.NodeEntity;
-import session.SessionAdapter;
 
 // graph format
 // https://www.dropbox.com/s/cpaidvxzisyic4d/2017-12-30%2021.54.47.jpg?dl=0
@@ -12,9 +11,15 @@ public class Tile {
 
 	private List<NodeEntity> data;
 	private int shotId;
+	// raw rows the loader read, duplicates included, -1 when it does not tell
+	private int adjacencyRows = -1;
+	private int backEdgeRows = -1;
 
-	public Tile(int shotId) {
-		data = SessionAdapter.getInstance().loadNodeEntitiesByShotId(shotId);
+	/**
+	 * data loaded by a TileLoader, ids and shotIds kept as they are
+	 */
+	public Tile(int shotId, List<NodeEntity> data) {
+		this.data = data;
 		this.shotId = shotId;
 	}
 
@@ -46,6 +51,23 @@ public class Tile {
 		return shotId;
 	}
 
+	/**
+	 * @param adjacencyRows rows of the shot's nodes in _adjacents
+	 * @param backEdgeRows rows of other shots' nodes pointing into the shot
+	 */
+	public void setRowCounts(int adjacencyRows, int backEdgeRows) {
+		this.adjacencyRows = adjacencyRows;
+		this.backEdgeRows = backEdgeRows;
+	}
+
+	public int getAdjacencyRows() {
+		return adjacencyRows;
+	}
+
+	public int getBackEdgeRows() {
+		return backEdgeRows;
+	}
+
 	@Override
 	public String toString() {
 		return "tile by shotId: " + shotId + " |size: " + data.size();
@@ -0,0 +1,199 @@
+package building_blocks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ifaces.TileLoader;
+import test_mocks.TileTester;
+
+/**
+ * Producer/consumer ingest stage. Loader threads fetch and validate tiles
+ * ahead of the merger, the merger takes them strictly in shot order.
+ *
+ * Backpressure: a loader has to get one of queueCapacity slots before it
+ * claims the next shot, the slot is given back when the merger takes a tile.
+ * Shots are claimed in ascending order, so the one the merger waits for is
+ * always in flight.
+ */
+public class TilePipeline {
+
+	private final List<TileLoader> loaders; // one per thread
+	private final int lastShot;
+	private final Semaphore slots;
+	private final AtomicInteger nextToClaim;
+	private int nextToTake;
+	private final Map<Integer, Tile> ready = new HashMap<Integer, Tile>();
+	private volatile RuntimeException failure = null;
+	private Thread[] threads;
+
+	// stats, nanos
+	private final AtomicLong loadNanos = new AtomicLong();
+	private final AtomicLong validateNanos = new AtomicLong();
+	private final AtomicLong loaderBlockedNanos = new AtomicLong();
+	private long mergerWaitNanos = 0;
+	private long mergerBusyNanos = 0;
+	private long lastTakeReturned = 0;
+	private int maxQueueDepth = 0;
+	private long queueDepthSum = 0;
+	private int taken = 0;
+
+	/**
+	 * @param loaders one loader per loader thread
+	 * @param queueCapacity tiles loaded ahead of the merger at most
+	 * @param firstShot inclusive
+	 * @param lastShot inclusive
+	 */
+	public TilePipeline(List<TileLoader> loaders, int queueCapacity, int firstShot, int lastShot) {
+		this.loaders = loaders;
+		this.lastShot = lastShot;
+		this.slots = new Semaphore(queueCapacity);
+		this.nextToClaim = new AtomicInteger(firstShot);
+		this.nextToTake = firstShot;
+	}
+
+	public void start() {
+		threads = new Thread[loaders.size()];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new LoaderWorker(loaders.get(i)), "tile-loader-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		lastTakeReturned = System.nanoTime();
+	}
+
+	public boolean hasNext() {
+		return nextToTake <= lastShot;
+	}
+
+	/**
+	 * blocks until the next tile in shot order is loaded and validated
+	 */
+	public Tile take() {
+		long waitStart = System.nanoTime();
+		mergerBusyNanos += waitStart - lastTakeReturned;
+		Tile tile;
+		synchronized (ready) {
+			int depth = ready.size();
+			queueDepthSum += depth;
+			if (depth > maxQueueDepth)
+				maxQueueDepth = depth;
+			while (!ready.containsKey(nextToTake)) {
+				if (failure != null)
+					throw failure;
+				try {
+					ready.wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					throw new RuntimeException("HALT IN TILE PIPELINE - merger interrupted");
+				}
+			}
+			tile = ready.remove(nextToTake);
+		}
+		slots.release();
+		nextToTake++;
+		taken++;
+		lastTakeReturned = System.nanoTime();
+		mergerWaitNanos += lastTakeReturned - waitStart;
+		return tile;
+	}
+
+	public void finish() {
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT IN TILE PIPELINE - joining loaders");
+			}
+		}
+		mergerBusyNanos += System.nanoTime() - lastTakeReturned;
+		printStats();
+	}
+
+	public int getQueueDepth() {
+		synchronized (ready) {
+			return ready.size();
+		}
+	}
+
+	public void printStats() {
+		System.out.println("\n\n=========================================================================");
+		System.out.println("TILE PIPELINE: loader threads: " + loaders.size() + " tiles: " + taken);
+		System.out.println("queue depth max: " + maxQueueDepth + " avg: "
+				+ (taken == 0 ? 0.0 : (double) queueDepthSum / taken));
+		System.out.println("loaders loading (sum over threads) ms: " + loadNanos.get() / 1000000);
+		System.out.println("loaders validating (sum over threads) ms: " + validateNanos.get() / 1000000);
+		System.out.println("loaders blocked on full queue (sum over threads) ms: " + loaderBlockedNanos.get() / 1000000);
+		System.out.println("merger waiting for tiles ms: " + mergerWaitNanos / 1000000);
+		System.out.println("merger busy ms: " + mergerBusyNanos / 1000000);
+		System.out.println("=========================================================================\n");
+	}
+
+	private void validate(Tile tile) {
+		TileTester tt = new TileTester();
+		boolean testsZero = tt.testZeroAdj(tile);
+		boolean testsMutualVis = tt.testMutualVisibility(tile);
+		if ((testsZero == true && testsMutualVis == true) == false) {
+			System.err.println("performTestsOnTile failed on " + tile);
+			throw new RuntimeException("performTestsOnTile");
+		}
+	}
+
+	private void fail(RuntimeException e) {
+		synchronized (ready) {
+			if (failure == null)
+				failure = e;
+			ready.notifyAll();
+		}
+	}
+
+	// --------------------------------------------------------------------------------------------------
+
+	private class LoaderWorker implements Runnable {
+
+		private final TileLoader loader;
+
+		private LoaderWorker(TileLoader loader) {
+			this.loader = loader;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (failure == null) {
+					long t0 = System.nanoTime();
+					slots.acquire();
+					long t1 = System.nanoTime();
+					loaderBlockedNanos.addAndGet(t1 - t0);
+					int shot = nextToClaim.getAndIncrement();
+					if (shot > lastShot) {
+						slots.release();
+						return;
+					}
+					Tile tile = loader.loadTile(shot);
+					long t2 = System.nanoTime();
+					validate(tile);
+					long t3 = System.nanoTime();
+					loadNanos.addAndGet(t2 - t1);
+					validateNanos.addAndGet(t3 - t2);
+					synchronized (ready) {
+						ready.put(shot, tile);
+						ready.notifyAll();
+					}
+				}
+			} catch (InterruptedException e) {
+				fail(new RuntimeException("HALT IN TILE PIPELINE - loader interrupted"));
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				fail(e);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				fail(new RuntimeException("HALT IN TILE PIPELINE - loader failed", e));
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package building_blocks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import entity.NodeEntity;
+
+/**
+ * Per shot Tile snapshots on local disk, one file per shot under
+ * path/tableName/, memory mapped on read.
+ *
+ * file layout, big endian:
+ *   header   int magic, int version, int shotId, int nodeRows, int foreign, int pairs,
+ *            int adjacencyRows, int backEdgeRows
+ *   long[]   ids             nodeRows + foreign
+ *   double[] lons            nodeRows + foreign
+ *   double[] lats            nodeRows + foreign
+ *   long[]   foreignShotIds  foreign
+ *   int[]    adjacency       pairs * 2, (from index, to index)
+ *   short[]  weights         nodeRows + foreign
+ *
+ * nodes 0 .. nodeRows - 1 are the tile data, the rest are adjacents pointing
+ * out of the shot. Pairs are the edges of the tile data, then the edges of
+ * the adjacents out of the shot back into it. nodeRows and the raw rows the
+ * loader read (Tile.getAdjacencyRows(), getBackEdgeRows(), duplicates
+ * included, pairs are not) are compared against the row counts in the
+ * database to invalidate a snapshot.
+ */
+public class TileSnapshotCache {
+
+	private static final int MAGIC = 0x54494C45; // TILE
+	private static final int VERSION = 3;
+	private static final int HEADER_BYTES = 8 * 4;
+	private static final String EXTENSION = ".tile";
+	private static final String MANIFEST = "shots.txt";
+
+	private final File directory;
+
+	public TileSnapshotCache(String path, String tableName) {
+		this.directory = new File(path + File.separator + tableName);
+		if (!directory.exists() && !directory.mkdirs())
+			throw new RuntimeException("HALT cannot create cache directory " + directory);
+	}
+
+	private File fileOf(int shotId) {
+		return new File(directory, shotId + EXTENSION);
+	}
+
+	public boolean contains(int shotId) {
+		return fileOf(shotId).exists();
+	}
+
+	/**
+	 * 0 when there is no snapshot
+	 */
+	public long lengthOf(int shotId) {
+		return fileOf(shotId).length();
+	}
+
+	/**
+	 * 0 when there is no snapshot
+	 */
+	public long lastModifiedOf(int shotId) {
+		return fileOf(shotId).lastModified();
+	}
+
+	/**
+	 * header only
+	 * @return true when the snapshot exists and row counts still match
+	 */
+	public boolean isValid(int shotId, int nodeRows, int adjacencyRows, int backEdgeRows) {
+		File file = fileOf(shotId);
+		if (!file.exists())
+			return false;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				if (raf.length() < HEADER_BYTES)
+					return false;
+				int magic = raf.readInt();
+				int version = raf.readInt();
+				int shot = raf.readInt();
+				int rows = raf.readInt();
+				raf.readInt(); // foreign
+				raf.readInt(); // pairs
+				int adjacency = raf.readInt();
+				int backEdges = raf.readInt();
+				return magic == MAGIC && version == VERSION && shot == shotId && rows == nodeRows
+						&& adjacency == adjacencyRows && backEdges == backEdgeRows;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @param shotId
+	 * @return
+	 */
+	public Tile read(int shotId) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(fileOf(shotId), "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return decode(buffer, shotId);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while reading snapshot of shot " + shotId);
+		}
+	}
+
+	private Tile decode(ByteBuffer buffer, int shotId) {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != shotId)
+			throw new RuntimeException("HALT corrupted snapshot of shot " + shotId);
+		int nodeRows = buffer.getInt();
+		int foreign = buffer.getInt();
+		int pairs = buffer.getInt();
+		int adjacencyRows = buffer.getInt();
+		int backEdgeRows = buffer.getInt();
+		int n = nodeRows + foreign;
+
+		long[] ids = new long[n];
+		double[] lons = new double[n];
+		double[] lats = new double[n];
+		long[] foreignShotIds = new long[foreign];
+		int[] adjacency = new int[pairs * 2];
+		short[] weights = new short[n];
+
+		buffer.asLongBuffer().get(ids);
+		buffer.position(buffer.position() + n * 8);
+		buffer.asDoubleBuffer().get(lons);
+		buffer.position(buffer.position() + n * 8);
+		buffer.asDoubleBuffer().get(lats);
+		buffer.position(buffer.position() + n * 8);
+		buffer.asLongBuffer().get(foreignShotIds);
+		buffer.position(buffer.position() + foreign * 8);
+		buffer.asIntBuffer().get(adjacency);
+		buffer.position(buffer.position() + pairs * 8);
+		buffer.asShortBuffer().get(weights);
+
+		NodeEntity[] nodes = new NodeEntity[n];
+		List<NodeEntity> data = new ArrayList<NodeEntity>(nodeRows);
+		for (int i = 0; i < n; i++) {
+			long nodeShotId = i < nodeRows ? shotId : foreignShotIds[i - nodeRows];
+			nodes[i] = new NodeEntity(nodeShotId, lons[i], lats[i], weights[i], new HashSet<NodeEntity>());
+			nodes[i].setId(ids[i]);
+			if (i < nodeRows)
+				data.add(nodes[i]);
+		}
+		for (int p = 0; p < pairs; p++) {
+			nodes[adjacency[2 * p]].addToAdj(nodes[adjacency[2 * p + 1]]);
+		}
+		Tile tile = new Tile(shotId, data);
+		tile.setRowCounts(adjacencyRows, backEdgeRows);
+		return tile;
+	}
+
+	/**
+	 * written to a temp file and renamed, a crash never leaves half a snapshot;
+	 * row counts of the tile as its loader set them, -1 never validates
+	 */
+	public void write(Tile tile) {
+		List<NodeEntity> data = tile.getData();
+		Map<NodeEntity, Integer> index = new IdentityHashMap<NodeEntity, Integer>();
+		List<NodeEntity> all = new ArrayList<NodeEntity>(data);
+		for (NodeEntity ne : data)
+			index.put(ne, index.size());
+		int pairs = 0;
+		for (NodeEntity ne : data) {
+			for (NodeEntity adj : ne.getAdjacents()) {
+				if (!index.containsKey(adj)) {
+					index.put(adj, index.size());
+					all.add(adj);
+				}
+				pairs++;
+			}
+		}
+		int nodeRows = data.size();
+		int n = all.size();
+		int foreign = n - nodeRows;
+		for (int i = nodeRows; i < n; i++) {
+			for (NodeEntity adj : all.get(i).getAdjacents()) {
+				if (index.containsKey(adj))
+					pairs++;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + n * (8 + 8 + 8 + 2) + foreign * 8 + pairs * 8);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(tile.getShotId()).putInt(nodeRows).putInt(foreign).putInt(pairs)
+				.putInt(tile.getAdjacencyRows()).putInt(tile.getBackEdgeRows());
+		for (NodeEntity ne : all)
+			buffer.putLong(ne.getId());
+		for (NodeEntity ne : all)
+			buffer.putDouble(ne.getLon());
+		for (NodeEntity ne : all)
+			buffer.putDouble(ne.getLat());
+		for (int i = nodeRows; i < n; i++)
+			buffer.putLong(all.get(i).getShotId());
+		for (int from = 0; from < n; from++) {
+			for (NodeEntity adj : all.get(from).getAdjacents()) {
+				// edges of foreign nodes further out of the shot are not kept
+				Integer to = index.get(adj);
+				if (to == null)
+					continue;
+				buffer.putInt(from);
+				buffer.putInt(to);
+			}
+		}
+		for (NodeEntity ne : all)
+			buffer.putShort(ne.getWeight());
+		buffer.flip();
+
+		File target = fileOf(tile.getShotId());
+		File temp = new File(directory, tile.getShotId() + EXTENSION + ".tmp");
+		try {
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				FileChannel channel = fos.getChannel();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while writing snapshot of shot " + tile.getShotId());
+		}
+		if (target.exists() && !target.delete())
+			throw new RuntimeException("HALT cannot replace snapshot " + target);
+		if (!temp.renameTo(target))
+			throw new RuntimeException("HALT cannot rename snapshot " + temp);
+	}
+
+	public void writeNmbOfShots(int nmbOfShots) {
+		try {
+			BufferedWriter bw = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(new File(directory, MANIFEST))));
+			bw.write(String.valueOf(nmbOfShots));
+			bw.newLine();
+			bw.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while writing cache manifest");
+		}
+	}
+
+	/**
+	 * @return -1 when the cache has never been completely filled
+	 */
+	public int readNmbOfShots() {
+		File manifest = new File(directory, MANIFEST);
+		if (!manifest.exists())
+			return -1;
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest)));
+			try {
+				return Integer.parseInt(br.readLine().trim());
+			} finally {
+				br.close();
+			}
+		} catch (IOException | NumberFormatException | NullPointerException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+}
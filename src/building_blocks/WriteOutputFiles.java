@@ -2,6 +2,7 @@ package building_blocks;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -32,6 +33,7 @@ public class WriteOutputFiles {
 	private List<NodeEntity> dataSet; // sorted by id
 	private Graph graph; // ask him about sizes already computed;
 	private App app; // ask him about metadata already computed;
+	private CompactGraph compact; // instead of dataSet and graph, renumbered
 
 	public WriteOutputFiles(String thePath, String theName, List<NodeEntity> theDataSet, Graph theGraph, App theApp) {
 		this.path = thePath;
@@ -41,6 +43,13 @@ public class WriteOutputFiles {
 		this.app = theApp;
 	}
 
+	public WriteOutputFiles(String thePath, String theName, CompactGraph theCompact, App theApp) {
+		this.path = thePath;
+		this.project = theName;
+		this.compact = theCompact;
+		this.app = theApp;
+	}
+
 	public void write() throws IOException {
 
 		String directoryName = path.concat(File.separator).concat(project);
@@ -68,7 +77,8 @@ public class WriteOutputFiles {
 		bw.write(bounds);
 		bw.newLine();
 		// write graphStats
-		String stats = graph.getDatasetSize() + SEP + graph.getEdgeSizeAfterCut();
+		String stats = compact != null ? compact.getSize() + SEP + compact.getEdgeSizeAfterCut()
+				: graph.getDatasetSize() + SEP + graph.getEdgeSizeAfterCut();
 		bw.write(stats);
 		bw.newLine();
 		// write routing type
@@ -82,6 +92,11 @@ public class WriteOutputFiles {
 		bw.close();
 		fos.close();
 
+		if (compact != null) {
+			writeCompact(directoryName + File.separator + project, dataFiles);
+			return;
+		}
+
 		// build nodes data
 
 		List<Integer> clusterIds = new LinkedList<Integer>();
@@ -154,6 +169,56 @@ public class WriteOutputFiles {
 		}
 	}
 
+	/**
+	 * same files as from the NodeEntity list, straight from the arrays
+	 */
+	private void writeCompact(String dirSepProj, String[] dataFiles) throws IOException {
+		if (!compact.isRenumbered())
+			throw new RuntimeException("HALT compact graph not renumbered");
+		int size = compact.getSize();
+		if (size == 0)
+			throw new RuntimeException("ZERO");
+
+		DataOutputStream clusterIds = open(new File(dirSepProj + dataFiles[4] + EXTENSION_DATA));
+		DataOutputStream elevs = open(new File(dirSepProj + dataFiles[2] + EXTENSION_DATA));
+		DataOutputStream weights = open(new File(dirSepProj + dataFiles[3] + EXTENSION_DATA));
+		DataOutputStream lats = open(new File(dirSepProj + dataFiles[0] + EXTENSION_DATA));
+		DataOutputStream lons = open(new File(dirSepProj + dataFiles[1] + EXTENSION_DATA));
+		for (int i = 0; i < size; i++) {
+			clusterIds.writeInt(compact.getCluster(i));
+			elevs.writeShort(compact.getElev(i));
+			weights.writeByte((byte) compact.getWeight(i));
+			lats.writeDouble(compact.getLat(i));
+			lons.writeDouble(compact.getLon(i));
+		}
+		clusterIds.close();
+		elevs.close();
+		weights.close();
+		lats.close();
+		lons.close();
+
+		DataOutputStream froms = open(new File(dirSepProj + dataFiles[5] + EXTENSION_DATA));
+		DataOutputStream tos = open(new File(dirSepProj + dataFiles[6] + EXTENSION_DATA));
+		DataOutputStream dists = open(new File(dirSepProj + dataFiles[7] + EXTENSION_DATA));
+		for (int i = 0; i < size; i++) {
+			for (int e = compact.firstEdge(i); e < compact.endEdge(i); e++) {
+				int adj = compact.target(e);
+				dists.writeDouble(Haversine.haversineInM(compact.getLat(i), compact.getLon(i), compact.getLat(adj),
+						compact.getLon(adj)));
+				froms.writeInt((int) compact.getId(i));
+				tos.writeInt((int) compact.getId(adj));
+			}
+		}
+		froms.close();
+		tos.close();
+		dists.close();
+	}
+
+	private DataOutputStream open(File file) throws IOException {
+		System.out.println("WriteData, writing " + file.toString());
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 8 * 1024));
+	}
+
 	// write
 
 	@SuppressWarnings("deprecation")
@@ -1,16 +1,9 @@
 package building_blocks.clustering;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CyclicBarrier;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import building_blocks.Graph;
 import building_blocks.clustering.utils.ClipToRGBVisible;
@@ -19,7 +12,9 @@ import entity.NodeEntity;
 import ifaces.Clusterizer;
 import lib_duke.ImageResource;
 import lib_duke.Pixel;
+import utils.ParallelRanges;
 import utils.geospatial.Haversine;
+import utils.geospatial.SpatialGrid;
 
 public class Clustering implements Clusterizer {
 
@@ -30,16 +25,22 @@ public class Clustering implements Clusterizer {
 	private final double excludeThreshold;
 	// to prevent out of memory error for these extremely dense an big graphs;
 	private static final double MAX_EDGE_DISTANCE = 120.0;
+	private static final double METRES_PER_DEGREE = Haversine.EQUAT_EARTH_RADIUS_M * Math.PI / 180.0;
+	// cells a bit wider than MAX_EDGE_DISTANCE, the grid is flat, Haversine is not
+	private static final double CELL_SLACK = 1.01;
+	private static final int EDGE_THREADS = 8;
 
+	// node i: entities.get(i) at (lats[i], lons[i])
 	private List<NodeEntity> entities;
-	private final Set<IdWrapper> forest = new HashSet<IdWrapper>();
-	private final List<Point> points = new LinkedList<Point>();
-	private List<Edge> edges;
-	private final Map<Edge, Edge> edgesConcurrentRetrievableSet = new ConcurrentHashMap<Edge, Edge>();
-	private int countWrappers = 0;
-	private CyclicBarrier barrier;
-	private Thread main = Thread.currentThread();
-	private volatile boolean barrierReached = false;
+	private double[] lats;
+	private double[] lons;
+	// candidate edges by index, edgeOrder: length bits << 32 | edge, ascending
+	private int nmbOfEdges = 0;
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private long[] edgeOrder;
+	private UnionFind clusters;
+	private int[] clusterOf; // after clusterize(), 0 .. clusters.getCount() - 1
 
 	public Clustering(Graph graph, App app) {
 		this.graph = graph;
@@ -55,100 +56,52 @@ public class Clustering implements Clusterizer {
 	public void doInit() {
 
 		System.out.println("\n\nCLUSTERING\n -- doInitStart");
-		entities = new LinkedList<NodeEntity>(graph.getRetrievableDataSet().keySet());
-		System.out.println(" -- doInitArraysFilled\n -- iD wrappers creation\n");
-
-		// points
-		int printed = 0;
-		long idRepresentative = 1;
-		for (NodeEntity n : entities) {
-			IdWrapper wrapper = new IdWrapper();
-			Set<Point> disjointSet = new HashSet<Point>();
-			wrapper.disjointSet = disjointSet;
-			wrapper.idRepresentative = idRepresentative;
-			final Point current = new Point(wrapper, n);
-			disjointSet.add(current);
-			points.add(current);
-			forest.add(wrapper);
-			idRepresentative++;
-			if (idRepresentative % 1000 == 0) {
-				System.out.print(", " + idRepresentative);
-				printed++;
-				if (printed % 20 == 0)
-					System.out.println();
-
-			}
-		}
-
-		// edges
-		final int howMany = 8;
-		final int chunk = points.size() / howMany;
-		final int[] chunkBounds = new int[howMany + 1];
-		chunkBounds[0] = 0;
-		chunkBounds[howMany] = points.size();
-		// left inclusive right exclusive
-		for (int i = 1; i < howMany; i++) {
-			chunkBounds[i] = i * chunk;
+		entities = new ArrayList<NodeEntity>(graph.getRetrievableDataSet().keySet());
+		lats = new double[entities.size()];
+		lons = new double[entities.size()];
+		for (int i = 0; i < entities.size(); i++) {
+			lats[i] = entities.get(i).getLat();
+			lons[i] = entities.get(i).getLon();
 		}
-		// from now on treat chunkBounds as immutable
-		// from now on treat points as immutable
-		System.out.println("\n\nn: " + points.size());
-		System.out.println("chunk: " + chunk);
-		System.out.println("chunkBounds: " + chunkBounds.toString());
-		for (int i : chunkBounds)
-			System.out.println(" -- " + i);
-
-		barrier = new CyclicBarrier(howMany, new Runnable() {
+		System.out.println(" -- doInitArraysFilled");
+
+		// edges, candidates only from the own and the neighbouring cells of a
+		// grid of MAX_EDGE_DISTANCE cells, every pair once
+		final SpatialGrid grid = pointGrid();
+		final EdgeArrays[] found = new EdgeArrays[EDGE_THREADS];
+		for (int t = 0; t < EDGE_THREADS; t++)
+			found[t] = new EdgeArrays();
+		System.out.println("\n\nn: " + entities.size() + " cells: " + grid.getCellCount());
+		ParallelRanges.run("edges", grid.getCellCount(), EDGE_THREADS, new ParallelRanges.Range() {
 			@Override
-			public void run() {
-				synchronized (printSync) {
-					System.out.println("\n====== Barrier reached ======\nNOTIFYING main\n");
-				}
-				// spurious wake up prevention
-				barrierReached = true;
-				synchronized (main) {
-					main.notify();
-				}
+			public void run(int worker, int from, int to) {
+				for (int cell = from; cell < to; cell++)
+					edgesFrom(grid, cell, found[worker]);
 			}
 		});
 
-		// fork workers
-		for (int positionChunk = 1; positionChunk < chunkBounds.length; positionChunk++) {
-
-			int fromIncl = chunkBounds[positionChunk - 1];
-			int toExcl = chunkBounds[positionChunk];
-			synchronized (printSync) {
-				System.out.println("\nCreating an edge worker, portion given to him (incl, excl): " + fromIncl + ", "
-						+ toExcl + "\n");
-			}
-			EdgesInKartesianWorker worker = new EdgesInKartesianWorker(fromIncl, toExcl);
-			Thread workerThread = new Thread(worker);
-			workerThread.start();
-
-		}
-		// join workers(barrier)
-		synchronized (main) {
-			try {
-				while (barrierReached == false) {
-					synchronized (printSync) {
-						System.out.println("\nPUTTING main ON WAIT\n");
-					}
-					main.wait();
-				}
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				throw new RuntimeException("HALT IN CLUSTERING - WAITING FOR BARRIER TO INVOKE notify()");
+		// joined in worker order, sorted by length, equal lengths in that order
+		for (EdgeArrays part : found)
+			nmbOfEdges += part.size;
+		edgeFrom = new int[nmbOfEdges];
+		edgeTo = new int[nmbOfEdges];
+		edgeOrder = new long[nmbOfEdges];
+		int e = 0;
+		for (EdgeArrays part : found) {
+			for (int k = 0; k < part.size; k++, e++) {
+				edgeFrom[e] = part.from[k];
+				edgeTo[e] = part.to[k];
+				// a non negative float orders as its bits do
+				edgeOrder[e] = ((long) Float.floatToIntBits(part.length[k]) << 32) | e;
 			}
 		}
-
-		System.out.println("main CARIES ON");
-		edges = new LinkedList<Edge>(edgesConcurrentRetrievableSet.keySet());
-		Collections.sort(edges);
-		System.out.println("\n\nedges.size : " + edges.size());
+		Arrays.parallelSort(edgeOrder);
+		System.out.println("\n\nedges.size : " + nmbOfEdges);
 	}
 
 	/**
-	 * Kruskal
+	 * Kruskal, sets merged by a UnionFind over node indices, cluster ids
+	 * from its labels in one pass at the end
 	 */
 	@Override
 	public void clusterize() {
@@ -156,88 +109,53 @@ public class Clustering implements Clusterizer {
 		System.out.println("Number of clusters expected: " + numberClusters);
 		System.out.println("Forest sizes:\n");
 		int printed = 0;
+		clusters = new UnionFind(entities.size());
 
-		while (forest.size() > numberClusters && edges.size() > 0) {
-			// retrieve shortest edge
-			Edge currentEdge = edges.get(0);
-
-			Point p1 = currentEdge.p1;
-			Point p2 = currentEdge.p2;
-
-			if (p1.wrapper.idRepresentative == p2.wrapper.idRepresentative) {
-				edges.remove(0);
+		for (int k = 0; k < nmbOfEdges && clusters.getCount() > numberClusters; k++) {
+			// shortest edge left
+			int e = (int) edgeOrder[k];
+			if (!clusters.union(edgeFrom[e], edgeTo[e]))
 				continue;
-			}
-
-			// UNION OPERATION
-			IdWrapper w1 = p1.wrapper;
-			Set<Point> s1 = w1.disjointSet;
-
-			IdWrapper w2 = p2.wrapper;
-			Set<Point> s2 = w2.disjointSet;
-
-			for (Point p : s2) {
-				p.setWrapper(w1);
-				s1.add(p);
-			}
-
-			forest.remove(w2);
-			edges.remove(0);
-
-			s2 = null;
-			w2 = null;
-
-			if (forest.size() % 10000 == 0) {
-				System.out.print(", " + forest.size());
+			if (clusters.getCount() % 10000 == 0) {
+				System.out.print(", " + clusters.getCount());
 				printed++;
 				if (printed % 20 == 0)
 					System.out.println();
 			}
 		}
 
-		for (IdWrapper w : forest) {
-			countWrappers += w.disjointSet.size();
-			for (Point p : w.disjointSet) {
-				p.n.setIdCLuster(w.idRepresentative);
-			}
-		}
-		if (countWrappers != graph.getDatasetSize()) {
-			System.err.println("NODES MISSED");
-			throw new RuntimeException("NODES MISSED");
-		}
+		clusterOf = clusters.labels();
+		for (int i = 0; i < entities.size(); i++)
+			entities.get(i).setIdCLuster(clusterOf[i] + 1);
 
 		printForestDisjointTreesStats();
-		visualizeClusters();
+		if (App.VISUALIZE_CLUSTERS)
+			visualizeClusters();
 	}
 
-	/**
-	 * 
-	 * @param p1
-	 * @param p2
-	 * @return
-	 */
-	private double distanceBtw(Point p1, Point p2) {
-		return Haversine.haversineInM(p1.lat, p1.lon, p2.lat, p2.lon);
+	private double distanceBtw(int i, int j) {
+		return Haversine.haversineInM(lats[i], lons[i], lats[j], lons[j]);
 	}
 
 	private void printForestDisjointTreesStats() {
+		int[] sizes = new int[clusters.getCount()];
+		for (int c : clusterOf)
+			sizes[c]++;
 		System.out.println("\n\n=============================================");
-		System.out.println("ForestDisjointTrees size: " + forest.size());
+		System.out.println("ForestDisjointTrees size: " + sizes.length);
 		int count = 0;
 		int printed = 0;
-		int reducingFaktor = determinePrintReducingFactor(forest.size());
-		int iteratedAlready = 0;
+		int reducingFaktor = determinePrintReducingFactor(sizes.length);
 		System.out.println("SIZES");
 		System.out.println("reducingFaktor(print only): " + reducingFaktor);
-		for (IdWrapper w : forest) {
-			if (iteratedAlready % reducingFaktor == 0) {
-				System.out.print(", " + w.disjointSet.size());
+		for (int c = 0; c < sizes.length; c++) {
+			if (c % reducingFaktor == 0) {
+				System.out.print(", " + sizes[c]);
 				printed++;
 				if (printed % 60 == 0)
 					System.out.println();
 			}
-			count += w.disjointSet.size();
-			iteratedAlready++;
+			count += sizes[c];
 		}
 		System.err.println("\nDIFF: " + (graph.getDatasetSize() - count));
 		System.out.println("\n=============================================");
@@ -259,79 +177,96 @@ public class Clustering implements Clusterizer {
 		ImageResource ir = new ImageResource(App.PIC_WIDTH_MAX_INDEX + 1, App.PIC_HEIGHT_MAX_INDEX + 1);
 		Random random = new Random();
 		ir.draw();
-		for (IdWrapper wrapper : forest) {
-			int R = ClipToRGBVisible.clipToBounds(random.nextInt(255));
-			int G = ClipToRGBVisible.clipToBounds(random.nextInt(255));
-			int B = ClipToRGBVisible.clipToBounds(random.nextInt(255));
-			for (Point p : wrapper.disjointSet) {
-				Pixel pix = ir.getPixel(app.convertLonToPixX(p.lon), app.convertLatToPixY(p.lat));
-				pix.setRed(R);
-				pix.setGreen(G);
-				pix.setBlue(B);
-			}
+		int[][] colors = new int[clusters.getCount()][];
+		for (int c = 0; c < colors.length; c++) {
+			colors[c] = new int[] { ClipToRGBVisible.clipToBounds(random.nextInt(255)),
+					ClipToRGBVisible.clipToBounds(random.nextInt(255)),
+					ClipToRGBVisible.clipToBounds(random.nextInt(255)) };
+		}
+		for (int i = 0; i < entities.size(); i++) {
+			int[] color = colors[clusterOf[i]];
+			Pixel pix = ir.getPixel(app.convertLonToPixX(lons[i]), app.convertLatToPixY(lats[i]));
+			pix.setRed(color[0]);
+			pix.setGreen(color[1]);
+			pix.setBlue(color[2]);
 		}
 		ir.draw();
 	}
 
 	// --------------------------------------------------------------------------------------------------
 
-	private final Object printSync = new Object();
-	private AtomicInteger printed = new AtomicInteger(0);
-
-	private class EdgesInKartesianWorker implements Runnable {
-
-		private final int fromInclusive;
-		private final int toExclusive;
+	/**
+	 * lons shrunk as at the latitude farthest from the equator, a cell is
+	 * nowhere narrower than MAX_EDGE_DISTANCE, a pair that close lies in the
+	 * same or in neighbouring cells
+	 */
+	private SpatialGrid pointGrid() {
+		int n = entities.size();
+		double maxAbsLat = 0;
+		for (int i = 0; i < n; i++)
+			maxAbsLat = Math.max(maxAbsLat, Math.abs(lats[i]));
+		double shrink = Math.cos(Math.toRadians(maxAbsLat));
+		double[] shrunk = new double[n];
+		for (int i = 0; i < n; i++)
+			shrunk[i] = lons[i] * shrink;
+		return SpatialGrid.inDegrees(lats, shrunk, MAX_EDGE_DISTANCE * CELL_SLACK / METRES_PER_DEGREE);
+	}
 
-		private EdgesInKartesianWorker(int from, int to) {
-			this.fromInclusive = from;
-			this.toExclusive = to;
+	/**
+	 * pairs within the cell, then with the cells right, up left, up and up
+	 * right of it, the other four neighbours pair with it from their side
+	 */
+	private void edgesFrom(SpatialGrid grid, int cell, EdgeArrays found) {
+		int cols = grid.getCols();
+		int row = cell / cols;
+		int col = cell % cols;
+		int[] own = grid.itemsInCell(cell);
+		for (int a = 0; a < own.length; a++) {
+			for (int b = a + 1; b < own.length; b++)
+				addIfClose(own[a], own[b], found);
 		}
+		int[][] neighbours = { { row, col + 1 }, { row + 1, col - 1 }, { row + 1, col }, { row + 1, col + 1 } };
+		for (int[] rc : neighbours) {
+			if (rc[0] >= grid.getRows() || rc[1] < 0 || rc[1] >= cols)
+				continue;
+			int[] other = grid.itemsInCell(rc[0] * cols + rc[1]);
+			for (int a : own) {
+				for (int b : other)
+					addIfClose(a, b, found);
+			}
+		}
+	}
 
-		@Override
-		public void run() {
-
-			long count = 0;
-			long skipped = 0;
-			double dist = 0;
-			double lonDelta = 0.0;
-			double latDelta = 0.0;
+	private void addIfClose(int i, int j, EdgeArrays found) {
+		// to prevent out of memory error for these extremely dense graphs;
+		double lonDelta = Math.abs(lons[i] - lons[j]);
+		double latDelta = Math.abs(lats[i] - lats[j]);
+		if (lonDelta > excludeThreshold || latDelta > excludeThreshold)
+			return;
+		double dist = distanceBtw(i, j);
+		if (dist > MAX_EDGE_DISTANCE)
+			return;
+		found.add(i, j, (float) dist);
+	}
 
-			for (int i = fromInclusive; i < toExclusive; i++) {
-				Point current = points.get(i);
-				for (Point iterated : points) {
-					// to prevent out of memory error for these extremely dense
-					// graphs;
-					lonDelta = Math.abs(current.lon - iterated.lon);
-					latDelta = Math.abs(current.lat - iterated.lat);
-					if (lonDelta > excludeThreshold || latDelta > excludeThreshold)
-						continue;
-					dist = distanceBtw(current, iterated);
-					if (dist > MAX_EDGE_DISTANCE) {
-						skipped++;
-						continue;
-					}
-					final Edge newOne = new Edge(current, iterated, dist);
-					edgesConcurrentRetrievableSet.put(newOne, newOne);
-					if (count % 100000 == 0) {
-						synchronized (printSync) {
-							System.out.print(", created: " + count + " | skipped: " + skipped);
-						}
-						printed.incrementAndGet();
-						if (printed.get() % 5 == 0)
-							synchronized (printSync) {
-								System.out.println();
-							}
-					}
-					count++;
-				}
-			}
-			try {
-				barrier.await();
-			} catch (InterruptedException | BrokenBarrierException e) {
-				e.printStackTrace();
-				throw new RuntimeException("HALT IN CLUSTERING - calling barrier.await()");
+	/**
+	 * candidate edges of one worker, edge k from from[k] to to[k]
+	 */
+	private static class EdgeArrays {
+		private int[] from = new int[1024];
+		private int[] to = new int[1024];
+		private float[] length = new float[1024];
+		private int size = 0;
+
+		private void add(int i, int j, float d) {
+			if (size == from.length) {
+				from = Arrays.copyOf(from, size * 2);
+				to = Arrays.copyOf(to, size * 2);
+				length = Arrays.copyOf(length, size * 2);
 			}
+			from[size] = i;
+			to[size] = j;
+			length[size++] = d;
 		}
 	}
 }
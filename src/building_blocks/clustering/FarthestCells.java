@@ -0,0 +1,210 @@
+package building_blocks.clustering;
+
+import utils.geospatial.SpatialGrid;
+import utils.store.DoubleColumn;
+
+/**
+ * Farthest first bookkeeping of kClusters cell by cell. Nodes sit in the
+ * cells of a grid in plain degrees; a cell knows the box its nodes span and
+ * its farthest node, and the cells are kept in a max-heap by that distance.
+ *
+ * A new centroid can only lower the distance of a node nearer to it than
+ * the node's farthest-so-far distance. Only cells whose box lies closer to
+ * the centroid than their own farthest node are scanned. Those lie within
+ * the covering radius around it, so a centroid costs its neighbourhood and
+ * not n. The box bound is exact in floating point, so the seeds are the
+ * same ones the full scan finds, with ties going to the lowest index.
+ */
+class FarthestCells {
+
+	private final DoubleColumn lats;
+	private final DoubleColumn lons;
+	private final DoubleColumn distFromSelected;
+	private final boolean[] isCentroid;
+
+	private final SpatialGrid grid;
+	private final int cols;
+	// nodes of cell c: cellItems[cellStart[c] .. cellStart[c + 1]), ascending
+	private final int[] cellStart;
+	private final int[] cellItems;
+	// box spanned by the nodes of a cell
+	private final double[] boxMinLat;
+	private final double[] boxMaxLat;
+	private final double[] boxMinLon;
+	private final double[] boxMaxLon;
+	// farthest node of a cell, -1 and 0 when none is left
+	private final double[] cellMax;
+	private final int[] cellArg;
+	// non empty cells, farthest on top, heapPos[cell] its slot
+	private final int[] heap;
+	private final int[] heapPos;
+	private final int heapSize;
+
+	private long scanned = 0;
+
+	/**
+	 * distFromSelected and isCentroid are those of kClusters, read and
+	 * written in place; grid in plain degrees over the same nodes, any cell
+	 * size gives the same seeds
+	 */
+	FarthestCells(DoubleColumn lats, DoubleColumn lons, DoubleColumn distFromSelected, boolean[] isCentroid,
+			SpatialGrid grid) {
+		this.lats = lats;
+		this.lons = lons;
+		this.distFromSelected = distFromSelected;
+		this.isCentroid = isCentroid;
+		int n = lats.length();
+		this.grid = grid;
+		cols = grid.getCols();
+
+		int cells = grid.getCellCount();
+		cellStart = new int[cells + 1];
+		cellItems = new int[n];
+		boxMinLat = new double[cells];
+		boxMaxLat = new double[cells];
+		boxMinLon = new double[cells];
+		boxMaxLon = new double[cells];
+		cellMax = new double[cells];
+		cellArg = new int[cells];
+		heap = new int[cells];
+		heapPos = new int[cells];
+		int filled = 0;
+		int nonEmpty = 0;
+		for (int c = 0; c < cells; c++) {
+			cellStart[c] = filled;
+			int[] items = grid.itemsInCell(c);
+			boxMinLat[c] = boxMinLon[c] = Double.MAX_VALUE;
+			boxMaxLat[c] = boxMaxLon[c] = -Double.MAX_VALUE;
+			for (int i : items) {
+				cellItems[filled++] = i;
+				boxMinLat[c] = Math.min(boxMinLat[c], lats.get(i));
+				boxMaxLat[c] = Math.max(boxMaxLat[c], lats.get(i));
+				boxMinLon[c] = Math.min(boxMinLon[c], lons.get(i));
+				boxMaxLon[c] = Math.max(boxMaxLon[c], lons.get(i));
+			}
+			if (items.length == 0) {
+				cellMax[c] = 0;
+				cellArg[c] = -1;
+				heapPos[c] = -1;
+				continue;
+			}
+			// no centroid yet, every node infinitely far
+			cellMax[c] = Double.MAX_VALUE;
+			cellArg[c] = items[0];
+			heap[nonEmpty] = c;
+			heapPos[c] = nonEmpty++;
+		}
+		cellStart[cells] = filled;
+		heapSize = nonEmpty;
+		// all keys equal, lowest node first, cells are in ascending order of it
+		// only within a row, so sift the whole heap once
+		for (int s = heapSize / 2 - 1; s >= 0; s--)
+			siftDown(s);
+	}
+
+	/**
+	 * distances lowered by the centroid just added, isCentroid[latest] is
+	 * set already
+	 */
+	void update(int latest) {
+		double lat = lats.get(latest);
+		double lon = lons.get(latest);
+		// covering radius, no cell is farther than that from its centroids
+		double radius = heapSize == 0 ? 0 : cellMax[heap[0]];
+		int low = grid.cellOf(lat - radius, lon - radius);
+		int high = grid.cellOf(lat + radius, lon + radius);
+		// a cell of slack each side, cellOf() rounds
+		int r0 = Math.max(0, low / cols - 1);
+		int r1 = Math.min(grid.getRows() - 1, high / cols + 1);
+		int c0 = Math.max(0, low % cols - 1);
+		int c1 = Math.min(cols - 1, high % cols + 1);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				int cell = r * cols + c;
+				if (heapPos[cell] < 0 || boxDistance(cell, lat, lon) >= cellMax[cell])
+					continue;
+				rescan(cell, latest);
+			}
+		}
+	}
+
+	/**
+	 * @return the node farthest from the centroids, the lowest index among
+	 *         equally far ones, -1 when every node is on a centroid
+	 */
+	int farthest() {
+		if (heapSize == 0 || cellMax[heap[0]] <= 0)
+			return -1;
+		return cellArg[heap[0]];
+	}
+
+	/**
+	 * nodes looked at so far
+	 */
+	long getScanned() {
+		return scanned;
+	}
+
+	/*
+	 * min-update of the nodes of the cell and its new farthest node, as
+	 * kClusters does it over all nodes
+	 */
+	private void rescan(int cell, int latest) {
+		double lat = lats.get(latest);
+		double lon = lons.get(latest);
+		double maxDist = 0.0;
+		int farthest = -1;
+		for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+			int i = cellItems[p];
+			if (isCentroid[i])
+				continue;
+			double dLat = lat - lats.get(i);
+			double dLon = lon - lons.get(i);
+			double dist = Math.min(distFromSelected.get(i), Math.sqrt((dLat * dLat) + (dLon * dLon)));
+			distFromSelected.set(i, dist);
+			if (dist > maxDist) {
+				maxDist = dist;
+				farthest = i;
+			}
+		}
+		scanned += cellStart[cell + 1] - cellStart[cell];
+		cellMax[cell] = maxDist;
+		cellArg[cell] = farthest;
+		// distances only drop, a cell never gets farther than it was
+		siftDown(heapPos[cell]);
+	}
+
+	/*
+	 * no node of the cell is nearer than that; rounding is monotonic, no
+	 * distance computed in rescan() comes out below it either
+	 */
+	private double boxDistance(int cell, double lat, double lon) {
+		double dLat = lat < boxMinLat[cell] ? boxMinLat[cell] - lat : (lat > boxMaxLat[cell] ? lat - boxMaxLat[cell] : 0);
+		double dLon = lon < boxMinLon[cell] ? boxMinLon[cell] - lon : (lon > boxMaxLon[cell] ? lon - boxMaxLon[cell] : 0);
+		return Math.sqrt((dLat * dLat) + (dLon * dLon));
+	}
+
+	private boolean isFarther(int cellA, int cellB) {
+		return cellMax[cellA] > cellMax[cellB] || (cellMax[cellA] == cellMax[cellB] && cellArg[cellA] < cellArg[cellB]);
+	}
+
+	private void siftDown(int pos) {
+		while (true) {
+			int top = pos;
+			int left = 2 * pos + 1;
+			int right = left + 1;
+			if (left < heapSize && isFarther(heap[left], heap[top]))
+				top = left;
+			if (right < heapSize && isFarther(heap[right], heap[top]))
+				top = right;
+			if (top == pos)
+				return;
+			int cell = heap[pos];
+			heap[pos] = heap[top];
+			heap[top] = cell;
+			heapPos[heap[pos]] = pos;
+			heapPos[cell] = top;
+			pos = top;
+		}
+	}
+}
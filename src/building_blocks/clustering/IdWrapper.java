@@ -3,13 +3,15 @@ package building_blocks.clustering;
 import java.util.Set;
 
 class IdWrapper {
-	Set<Point> disjointSet;
+	Set<Point> disjointSet; // null until a visualizer asks for it
 	long idRepresentative;
 	public static final int CLUSTER_SIZE_DIVISOR = 20;//15
 
 	public String toString() {
 		String returnVal = "----------------- idWrapper: idRepresentative: " + idRepresentative + " | size: "
-				+ disjointSet.size() + "\n";
+				+ (disjointSet == null ? "-" : disjointSet.size()) + "\n";
+		if (disjointSet == null)
+			return returnVal;
 		for (Point p : disjointSet)
 			returnVal += "--------------------- " + p.toString();
 		return returnVal;
@@ -0,0 +1,84 @@
+package building_blocks.clustering;
+
+/**
+ * Disjoint sets over node indices 0 .. n - 1, two int arrays and nothing
+ * else. Union by size, the smaller tree goes under the root of the larger
+ * one, ties under a; find() compresses the whole path it walked.
+ */
+public class UnionFind {
+
+	private final int[] parent;
+	private final int[] size; // meaningful for roots only
+	private int count;
+
+	public UnionFind(int n) {
+		parent = new int[n];
+		size = new int[n];
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		count = n;
+	}
+
+	public int find(int x) {
+		int root = x;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[x] != root) {
+			int next = parent[x];
+			parent[x] = root;
+			x = next;
+		}
+		return root;
+	}
+
+	/**
+	 * @return false when a and b were in one set already
+	 */
+	public boolean union(int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra == rb)
+			return false;
+		if (size[ra] < size[rb]) {
+			int swap = ra;
+			ra = rb;
+			rb = swap;
+		}
+		parent[rb] = ra;
+		size[ra] += size[rb];
+		count--;
+		return true;
+	}
+
+	/**
+	 * sets left
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public int sizeOf(int x) {
+		return size[find(x)];
+	}
+
+	/**
+	 * one pass, set ids 0 .. getCount() - 1 in the order of the lowest index
+	 * of each set
+	 */
+	public int[] labels() {
+		int n = parent.length;
+		int[] labels = new int[n];
+		int[] idOfRoot = new int[n];
+		int next = 0;
+		for (int i = 0; i < n; i++) {
+			int root = find(i);
+			// 0: no member of the set seen yet
+			if (idOfRoot[root] == 0)
+				idOfRoot[root] = ++next;
+			labels[i] = idOfRoot[root] - 1;
+		}
+		return labels;
+	}
+}
@@ -1,10 +1,13 @@
 package building_blocks.clustering;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import building_blocks.CompactGraph;
 import building_blocks.Graph;
 import building_blocks.clustering.utils.ClipToRGBVisible;
 import core.App;
@@ -12,28 +15,98 @@ import entity.NodeEntity;
 import ifaces.Clusterizer;
 import lib_duke.ImageResource;
 import lib_duke.Pixel;
+import utils.ParallelRanges;
+import utils.geospatial.SpatialGrid;
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+import utils.store.NodeStore;
 
 public class kClusters implements Clusterizer{
 
-	private Graph graph;
 	private App app;
 	private int numberClusters;
 
+	// exactly one of them is set, cluster ids are written back into it
 	private List<NodeEntity> entities;
+	private CompactGraph compact;
+
+	// node i, in the order of entities or of the compact graph; coordinates
+	// are the columns of the compact graph, per node scratch comes from its
+	// store, only isCentroid stays on the heap
+	private int size;
+	private NodeStore store;
+	private DoubleColumn lats;
+	private DoubleColumn lons;
+	private DoubleColumn distFromSelected;
+	private boolean[] isCentroid;
+
+	// farthest first on a fork/join pool, node blocks reduced in index order
+	private ForkJoinPool pool;
+	private int blocks;
+	private double[] blockMax;
+	private int[] blockArg;
+
+	// nodes a block scans at least, smaller sets are not worth the pool
+	private static final int MIN_BLOCK = 4096;
+
+	// App.PRUNED_SEEDING, farthest first cell by cell instead of the pool, on
+	// the spatial index of the compact graph or a grid of its own
+	private FarthestCells cells;
+	private static final int NODES_PER_CELL = 8;
+
 	private List<Point> centroids;
 	private long idRepresentative = 1;
+	// node i: index of its nearest centroid in centroids
+	private IntColumn clusterOf;
 
 	public kClusters(Graph graph, App app) {
-		this.graph = graph;
 		this.app = app;
 		numberClusters = graph.getDatasetSize() / IdWrapper.CLUSTER_SIZE_DIVISOR;
-		entities = new LinkedList<NodeEntity>(this.graph.getRetrievableDataSet().keySet());
-		centroids = new LinkedList<Point>();
+		entities = new ArrayList<NodeEntity>(graph.getRetrievableDataSet().keySet());
+		size = entities.size();
+		store = NodeStore.heap();
+		lats = store.doubles(size);
+		lons = store.doubles(size);
+		int i = 0;
+		for (NodeEntity n : entities) {
+			lats.set(i, n.getLat());
+			lons.set(i, n.getLon());
+			i++;
+		}
+		centroids = new ArrayList<Point>();
+	}
+
+	public kClusters(CompactGraph compact, App app) {
+		this.app = app;
+		this.compact = compact;
+		numberClusters = compact.getSize() / IdWrapper.CLUSTER_SIZE_DIVISOR;
+		size = compact.getSize();
+		store = CompactGraph.store();
+		lats = compact.lats();
+		lons = compact.lons();
+		centroids = new ArrayList<Point>();
 	}
 	
+	/**
+	 * what the clusters depend on besides the coordinates, part of the
+	 * checkpoint key of the cluster stage
+	 */
+	public static String getParams() {
+		return "divisor " + IdWrapper.CLUSTER_SIZE_DIVISOR;
+	}
+
 	@Override
 	public void doInit(){
-		//do nothing
+		distFromSelected = store.doubles(size);
+		for (int i = 0; i < size; i++)
+			distFromSelected.set(i, Double.MAX_VALUE);
+		isCentroid = new boolean[size];
+		if (App.PRUNED_SEEDING)
+			cells = new FarthestCells(lats, lons, distFromSelected, isCentroid, compact != null
+					? compact.getSpatialIndex() : SpatialGrid.inDegreesByDensity(lats, lons, NODES_PER_CELL));
+		blocks = App.PRUNED_SEEDING || App.CLUSTER_THREADS <= 1 ? 1 : Math.max(1, Math.min(size / MIN_BLOCK, App.CLUSTER_THREADS * 4));
+		blockMax = new double[blocks];
+		blockArg = new int[blocks];
 	}
 
 	/**
@@ -44,19 +117,9 @@ public class kClusters implements Clusterizer{
 		System.out.println("\n\nk-Clusters start");
 		System.out.println("Number of clusters expected: " + numberClusters);
 		
-		NodeEntity firstEntity = entities.get(entities.size() / 2);
-		IdWrapper firstWrapper = new IdWrapper();
-		firstWrapper.disjointSet = new HashSet<Point>();
-		firstWrapper.idRepresentative = this.idRepresentative;
-		this.idRepresentative ++;
-		Point firstCentroid = new Point(firstWrapper, firstEntity);
-		firstCentroid.setNodeEntityIsCentroid();
-		centroids.add(firstCentroid);
-		
-		Point regularCentroid = firstCentroid;
-		Point newCentroid;
-		IdWrapper regularWrapper;
-		NodeEntity regularFarthest;
+		int latest = size / 2;
+		addCentroid(latest);
+		pool = blocks > 1 ? new ForkJoinPool(App.CLUSTER_THREADS) : null;
 		
 
 	    // Scan the list of not-yet-selected points to find a point p that
@@ -70,77 +133,169 @@ public class kClusters implements Clusterizer{
 
 		
 		for(int i = 0; i < numberClusters - 1; i ++){
-			regularWrapper = new IdWrapper();
-			regularWrapper.disjointSet = new HashSet<Point>();
-			regularWrapper.idRepresentative = this.idRepresentative;
-			this.idRepresentative ++;
-			regularFarthest = getFarthestNodeEntity(regularCentroid);
-			newCentroid = new Point(regularWrapper, regularFarthest);
-			regularCentroid = newCentroid;
-			newCentroid.setNodeEntityIsCentroid();
+			latest = getFarthest(latest);
+			Point newCentroid = addCentroid(latest);
 			if(i % 100 == 0)System.out.println("(reduced print) Adding new centroid: " + newCentroid.singleLineToString());
-			centroids.add(newCentroid);
 		}
+		if (pool != null)
+			pool.shutdown();
+		if (cells != null)
+			System.out.println("Nodes scanned per centroid: " + cells.getScanned() / Math.max(1, centroids.size()));
+		cells = null;
+		store.free(distFromSelected);
+		distFromSelected = null;
 		
 		System.out.println("Setting id start");
-		Point closestCentroid;
-		for(NodeEntity n : entities){
-			
-			closestCentroid = getClosestCentroid(n);
-			n.setIdCLuster(closestCentroid.wrapper.idRepresentative);
-			closestCentroid.wrapper.disjointSet.add(new Point(null, n));
-			
-		}
+		final SpatialGrid centroidIndex = indexCentroids();
+		clusterOf = store.ints(size);
+		ParallelRanges.run("kClusters", size, App.CLUSTER_THREADS, new ParallelRanges.Range() {
+			@Override
+			public void run(int worker, int from, int to) {
+				for (int i = from; i < to; i++) {
+					int c = centroidIndex.nearest(lats.get(i), lons.get(i));
+					clusterOf.set(i, c);
+					long id = centroids.get(c).wrapper.idRepresentative;
+					if (entities != null)
+						entities.get(i).setIdCLuster(id);
+					else
+						compact.setCluster(i, (int) id);
+				}
+			}
+		});
 		System.out.println("Setting id finish");
-		visualizeClusters();
+		if (App.VISUALIZE_CLUSTERS)
+			visualizeClusters();
+	}
+
+	private Point addCentroid(int i) {
+		IdWrapper wrapper = new IdWrapper();
+		wrapper.idRepresentative = this.idRepresentative;
+		this.idRepresentative ++;
+		isCentroid[i] = true;
+		if (entities != null)
+			entities.get(i).isCentroid = true;
+		Point centroid = new Point(wrapper, lats.get(i), lons.get(i));
+		centroids.add(centroid);
+		return centroid;
 	}
 	
 	/*
-	 *
+	 * min-update against the latest centroid and arg-max, block by block on
+	 * the pool; blocks are reduced in index order with a strict >, the
+	 * farthest is the lowest index among equally far nodes, exactly what the
+	 * scan over all nodes in one go finds
 	 */
-	private NodeEntity getFarthestNodeEntity(Point latestCentroid){
-		NodeEntity farthest = null;
+	private int getFarthest(int latest){
+		if (cells != null) {
+			cells.update(latest);
+			return cells.farthest();
+		}
+		if (pool == null) {
+			farthestInBlock(0, latest);
+		} else {
+			pool.invoke(new FarthestBlocks(0, blocks, latest));
+		}
+		int farthest = -1;
+		double maxDist = 0.0;
+		for (int b = 0; b < blocks; b++) {
+			if (blockMax[b] > maxDist) {
+				maxDist = blockMax[b];
+				farthest = blockArg[b];
+			}
+		}
+		return farthest;
+	}
+
+	private void farthestInBlock(int block, int latest) {
+		int from = (int) ((long) size * block / blocks);
+		int to = (int) ((long) size * (block + 1) / blocks);
+		int farthest = -1;
 		double maxDist = 0.0;
-		double oldDist = 0.0;
-		for(NodeEntity n : entities){
-			if (n.isCentroid) continue;
+		for(int i = from; i < to; i ++){
+			if (isCentroid[i]) continue;
 			
 			// first update (farthest first traversal)
-			// For each remaining not-yet-selected NodeEntity n, replace the distance stored
-			// for n by the minimum of its oldDist and the distance from latestCentroid to n.
-			oldDist = n.cartesianDistFromSelectedPoints;
-			n.cartesianDistFromSelectedPoints = Math.min(oldDist, cartesianDist(latestCentroid, n));
+			// For each remaining not-yet-selected node i, replace the distance stored
+			// for i by the minimum of its old value and the distance from the latest centroid to i.
+			double dist = Math.min(distFromSelected.get(i), cartesianDist(latest, i));
+			distFromSelected.set(i, dist);
 			
-			// Scan the list of not-yet-selected NodeEntities to find a NodeEntity farthest, that
+			// Scan the not-yet-selected nodes to find the one farthest, that
 			// has the maximum distance from the selected Centroids (Points)
-			if(n.cartesianDistFromSelectedPoints > maxDist){
-				maxDist = n.cartesianDistFromSelectedPoints;
-				farthest = n;
+			if(dist > maxDist){
+				maxDist = dist;
+				farthest = i;
 			}
 		}
-		return farthest;
+		blockMax[block] = maxDist;
+		blockArg[block] = farthest;
 	}
-	
+
 	/*
-	 * 
+	 * blocks [from, to) halved until one is left
 	 */
-	private Point getClosestCentroid(NodeEntity n){
-		Point closest = null;
-		double minDist = Double.MAX_VALUE;
-		double dist = 0.0;
-		for (Point centroid: centroids){
-			dist = cartesianDist(centroid, n);
-			if(dist < minDist){
-				closest = centroid;
-				minDist = dist;
+	private class FarthestBlocks extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int latest;
+
+		private FarthestBlocks(int from, int to, int latest) {
+			this.from = from;
+			this.to = to;
+			this.latest = latest;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				farthestInBlock(from, latest);
+				return;
 			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new FarthestBlocks(from, middle, latest), new FarthestBlocks(middle, to, latest));
 		}
-		return closest;
 	}
 	
-	private double cartesianDist(Point p, NodeEntity n){
-		double dLat = p.lat - n.getLat();
-		double dLon = p.lon - n.getLon();
+	/*
+	 * grid in plain degrees, as cartesianDist measures, about two centroids
+	 * a cell; nearest() breaks ties by the lower index, the first centroid
+	 * added wins as it did in the scan over all of them
+	 */
+	private SpatialGrid indexCentroids() {
+		double[] centroidLats = new double[centroids.size()];
+		double[] centroidLons = new double[centroids.size()];
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int c = 0; c < centroids.size(); c++) {
+			centroidLats[c] = centroids.get(c).lat;
+			centroidLons[c] = centroids.get(c).lon;
+			minLat = Math.min(minLat, centroidLats[c]);
+			maxLat = Math.max(maxLat, centroidLats[c]);
+			minLon = Math.min(minLon, centroidLons[c]);
+			maxLon = Math.max(maxLon, centroidLons[c]);
+		}
+		double area = Math.max((maxLat - minLat) * (maxLon - minLon), 1e-12);
+		double cell = Math.sqrt(area / Math.max(1, centroids.size() / 2));
+		return SpatialGrid.inDegrees(centroidLats, centroidLons, cell);
+	}
+	
+	/*
+	 * points of each cluster, only the picture walks them
+	 */
+	private void fillDisjointSets() {
+		if (centroids.isEmpty() || centroids.get(0).wrapper.disjointSet != null)
+			return;
+		for (Point centroid : centroids)
+			centroid.wrapper.disjointSet = new HashSet<Point>();
+		for (int i = 0; i < size; i++)
+			centroids.get(clusterOf.get(i)).wrapper.disjointSet.add(new Point(null, lats.get(i), lons.get(i)));
+	}
+
+	private double cartesianDist(int a, int b){
+		double dLat = lats.get(a) - lats.get(b);
+		double dLon = lons.get(a) - lons.get(b);
 		return Math.sqrt((dLat * dLat) + (dLon * dLon));
 	}
 
@@ -169,6 +324,7 @@ public class kClusters implements Clusterizer{
 		}
 		ir.blacken();
 		
+		fillDisjointSets();
 		for (Point centroid : centroids) {
 			int R = ClipToRGBVisible.clipToBounds(random.nextInt(255));
 			int G = ClipToRGBVisible.clipToBounds(random.nextInt(255));
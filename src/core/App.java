@@ -2,8 +2,11 @@ package core;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -14,11 +17,22 @@ import java.util.Set;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
+import building_blocks.CachedTileSource;
+import building_blocks.CompactGraph;
 import building_blocks.DEMReader;
+import building_blocks.DatasetValidator;
 import building_blocks.DEMTile;
 import building_blocks.Graph;
+import building_blocks.GraphState;
+import building_blocks.IncrementalMerge;
+import building_blocks.ShardedMerge;
 import building_blocks.OutputXml;
 import building_blocks.Tile;
+import building_blocks.TilePipeline;
+import building_blocks.SnapshotTileSource;
+import building_blocks.StageCheckpoints;
+import building_blocks.StagePipeline;
+import building_blocks.TileSnapshotCache;
 import building_blocks.Trackpoint;
 import building_blocks.WriteOutputFiles;
 import building_blocks.clustering.kClusters;
@@ -26,12 +40,22 @@ import entity.DB_names;
 import entity.NmbShotsEntity;
 import entity.NodeEntity;
 import ifaces.Clusterizer;
+import ifaces.TileLoader;
+import ifaces.TileSource;
 import lib_duke.ImageResource;
 import lib_duke.LineMaker;
 import lib_duke.Pixel;
+import session.EmbeddedTileSource;
+import session.HibernateTileLoader;
+import session.HibernateTileSource;
+import session.JdbcSettings;
+import session.JdbcTileSource;
 import session.SessionAdapter;
+import session.ShotRowCounts;
 import test_mocks.MockTiles;
 import test_mocks.TileTester;
+import utils.geospatial.SpatialGrid;
+import utils.store.NodeStore;
 //more data
 //http://www.dis.uniroma1.it/challenge9/download.shtml
 
@@ -58,6 +82,65 @@ public class App {
 	public final static boolean DEVELOPMENT = false;
 	public final static boolean VERBOSE = false;
 	public final static boolean MOCKS = false;
+	// where tiles come from
+	public enum Source {
+		HIBERNATE, JDBC, EMBEDDED, SNAPSHOT
+	}
+	public final static Source SOURCE = Source.HIBERNATE;
+	public final static int JDBC_FETCH_SIZE = 5000;
+	// JDBC, EMBEDDED: whole region in three streamed scans instead of one query per shot
+	public final static boolean BULK_LOAD = false;
+	private final static String EMBEDDED_DUMP = "/home/radim/data/dumps/" + DB_names.NAME + ".sql";
+	// HIBERNATE, JDBC, EMBEDDED behind per shot binary snapshots on local disk,
+	// SNAPSHOT reads them only
+	public final static boolean SNAPSHOT_CACHE = false;
+	private final static String SNAPSHOT_CACHE_PATH = "/home/radim/data/tileCache";
+	// load and validate tiles on loader threads ahead of the merge
+	public final static boolean PIPELINED_LOADING = false;
+	public final static int LOADER_THREADS = 4;
+	public final static int LOADER_QUEUE_CAPACITY = 16;
+	// union-find component labelling in prune
+	public final static int LABELING_THREADS = 4;
+	// farthest first seeding of kClusters on a fork/join pool, same seeds for any count
+	public final static int CLUSTER_THREADS = 4;
+	// farthest first seeding of kClusters over a grid of cells, only cells near a new centroid scanned, same seeds
+	public final static boolean PRUNED_SEEDING = false;
+	// picture of the clusters after clustering, kClusters sleeps 5 s over it
+	public final static boolean VISUALIZE_CLUSTERS = false;
+	// collinearity of cut candidates evaluated in parallel, same cuts for any count
+	public final static int CUT_THREADS = 4;
+	// > 0: chains between junctions simplified within this many metres in
+	// place of the aligned nodes cut, CompactGraph only
+	public final static double SIMPLIFY_TOLERANCE_M = 0;
+	// fixDataset checks in one parallel sweep
+	public final static int VALIDATION_THREADS = 4;
+	// > 0: buildIn on this many shard threads, rebuildDataSet on as many threads
+	public final static int MERGE_SHARDS = 0;
+	// MERGE_SHARDS == 0 only: adjacents mapped to merged nodes in buildIn,
+	// tiles released right away, no rebuildDataSet
+	public final static boolean SINGLE_PASS_MERGE = false;
+	// the dataset is a QuantizedIndex and a node list instead of the HashMap on
+	// NodeEntity.hashCode(), buildIn and rebuildDataSet probe it by quantized coordinates
+	public final static boolean QUANTIZED_MERGE_INDEX = false;
+	// after merge freeze the Graph into primitive arrays, NodeEntities released
+	public final static boolean COMPACT_GRAPH = false;
+	// where the CompactGraph keeps its columns and the stages their per node
+	// scratch: HEAP, DIRECT (off heap, mind -XX:MaxDirectMemorySize) or MAPPED
+	// (temp files under NODE_STORE_PATH)
+	public final static NodeStore.Kind NODE_STORE = NodeStore.Kind.HEAP;
+	private final static String NODE_STORE_PATH = "/home/radim/data/nodeStore";
+	// compact graph, the merged graph and the result kept under GRAPH_STATE_PATH,
+	// the next run only merges shots after the last one kept
+	public final static boolean INCREMENTAL = false;
+	private final static String GRAPH_STATE_PATH = "/home/radim/data/graphState";
+	// CompactGraph after every stage, a run resumes from the last stage whose
+	// input and parameters are unchanged, not together with INCREMENTAL
+	public final static boolean CHECKPOINTS = false;
+	private final static String CHECKPOINT_PATH = "/home/radim/data/checkpoints";
+	// per stage wall, cpu, allocation and sizes as json and csv under PATH/NAME/pipeline
+	public final static boolean PIPELINE_REPORT = true;
+	// any of validate, prune, cut, simplify, cluster, elevate, write
+	private final static String[] DISABLED_STAGES = {};
 
 	public double minLon = 1000.0, maxLon = -1000.0, minLat = 1000.0, maxLat = -1000.0;
 	private double deltaLat, deltaLon;
@@ -79,6 +162,12 @@ public class App {
 	public short elevAvg = 0;
 
 	private short elev;
+	private int lastShotLoaded = -1;
+	private JdbcSettings sourceSettings;
+	private StageCheckpoints checkpoints;
+	private StagePipeline pipeline;
+	private CompactGraph compact; // what the compact stages work on, null before freeze
+	private List<NodeEntity> listedDataSet;
 	private long elevSum = 0;
 	private int voidCounter = 0;
 
@@ -89,76 +178,157 @@ public class App {
 	private void compose() {
 
 		System.out.println("Working with " + DB_names.NAME);
-		List<NmbShotsEntity> shots = SessionAdapter.getInstance().loadNmbShotsEntities();
-		System.out.println("Loaded ShotsEntity");
-		int nmbOfShots = shots.get(shots.size() - 1).getNmb();
-		int maxShotId = nmbOfShots - 1;
-		System.out.println("NmbOfShots " + nmbOfShots + " maxShotId " + maxShotId);
+		CompactGraph.setStore(new NodeStore(NODE_STORE, new File(NODE_STORE_PATH)));
+		pipeline = new StagePipeline(new StagePipeline.Sizes() {
+			@Override
+			public int getNodes() {
+				return compact != null ? compact.getSize() : graph.getDatasetSize();
+			}
 
-		if (MOCKS) {
-			MockTiles mt = new MockTiles();
-			for (Tile tile : mt.getTiles()) {
-				printTileInfo(tile, tile.getShotId());
-				// if smth goes wrong, throw exception, no attempt to fix
-				performTestsOnTile("mocks", tile);
-				graph.buildIn(tile);
+			@Override
+			public int getEdges() {
+				return compact != null ? compact.getEdgeSize() : graph.getEdgeSize();
 			}
+		}, DISABLED_STAGES);
+
+		if (MOCKS) {
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.LOAD) {
+				@Override
+				public void run() {
+					MockTiles mt = new MockTiles();
+					for (Tile tile : mt.getTiles()) {
+						printTileInfo(tile, tile.getShotId());
+						// if smth goes wrong, throw exception, no attempt to fix
+						performTestsOnTile("mocks", tile);
+						graph.buildIn(tile);
+					}
+				}
+			});
 
 		} else {
-			// iterate regular tiles
-			for (int shot = 0; shot <= maxShotId; shot++) {
-				Tile tile = new Tile(shot);
-				printTileInfo(tile, shot);
-				// if smth goes wrong, throw exception, no attempt to fix
-				performTestsOnTile("regular tile", tile);
-				graph.buildIn(tile);
+			if (INCREMENTAL) {
+				GraphState state = new GraphState(GRAPH_STATE_PATH, DB_names.TABLE_NODES);
+				int lastShot = state.readLastShot();
+				if (lastShot >= 0) {
+					composeIncremental(state, lastShot);
+					return;
+				}
+				System.out.println("No graph state yet, full run");
+			}
+			final TileSource source = createTileSource();
+			System.out.println("Tile source: " + source.getName());
+			if (CHECKPOINTS && !INCREMENTAL) {
+				checkpoints = new StageCheckpoints(CHECKPOINT_PATH, DB_names.TABLE_NODES, inputFingerprint(source));
+				StageCheckpoints.Stage done = checkpoints.lastValid();
+				if (done != null) {
+					source.close();
+					System.out.println("Resuming after stage " + done);
+					compact = checkpoints.read(done);
+					runStages(compact, done);
+					finishCompact(compact, done == StageCheckpoints.Stage.CLUSTER);
+					return;
+				}
+				System.out.println("No checkpoint for this input, full run");
+			}
+			final ShardedMerge sharded = MERGE_SHARDS > 0 ? new ShardedMerge(MERGE_SHARDS) : null;
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.LOAD) {
+				@Override
+				public void run() {
+					ingest(source, sharded);
+				}
+			});
+			if (sharded != null) {
+				pipeline.run(new StagePipeline.NamedStage(StagePipeline.MERGE) {
+					@Override
+					public void run() {
+						sharded.finish(graph);
+					}
+				});
 			}
+			System.out.println("HEAP used after ingest: " + usedHeap());
 		}
 
-		fixDataset("<after build in loop >");
-		graph.rebuildDataSet();
-		fixDataset("< after rebuild DataSet completed >");
+		if (SINGLE_PASS_MERGE && MERGE_SHARDS == 0) {
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.MERGE) {
+				@Override
+				public void run() {
+					graph.finishSinglePass();
+				}
+			});
+			fixDataset("< after single pass merge completed >");
+		} else {
+			fixDataset("<after build in loop >");
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.REBUILD) {
+				@Override
+				public void run() {
+					if (MERGE_SHARDS > 0)
+						graph.rebuildDataSet(MERGE_SHARDS);
+					else
+						graph.rebuildDataSet();
+				}
+			});
+			fixDataset("< after rebuild DataSet completed >");
+		}
 		graph.computeEdgeSizeAfterMerge();
-		graph.prune();
-		graph.computeEdgeSizeAfterPrune();
+		if ((COMPACT_GRAPH || INCREMENTAL || checkpoints != null) && !MOCKS) {
+			composeCompact();
+			return;
+		}
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.PRUNE) {
+			@Override
+			public void run() {
+				graph.prune();
+				graph.computeEdgeSizeAfterPrune();
+			}
+		});
 		fixDataset("< after prune DataSet completed >");
 		
-		//perform aligned nodes not necessary transform n-times
-		int n = 20;
-		for(int i = 0; i < n; i++) {
-			graph.cutUnnecesarryAlignedNodes();
-			graph.resetCutAvailability();
-		}
+		//perform aligned nodes not necessary transform until nothing changes
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.CUT) {
+			@Override
+			public void run() {
+				graph.contractAlignedNodes();
+			}
+		});
 		fixDataset("< after cut DataSet completed >");
 		
 		graph.computeEdgeSizeAfterCut();
 		
 		computeBoundsOfExistingNodes(graph);
 		
-		List<NodeEntity> listedDataSet = new ArrayList<NodeEntity>(graph.getRetrievableDataSet().keySet());
-		
-		compareListToSet(listedDataSet, graph.getRetrievableDataSet().keySet());
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.RENUMBER) {
+			@Override
+			public void run() {
+				listedDataSet = new ArrayList<NodeEntity>(graph.getRetrievableDataSet().keySet());
 
-		Collections.sort(listedDataSet); // by id
+				compareListToSet(listedDataSet, graph.getRetrievableDataSet().keySet());
 
-		long renumberedId = 0;
-		for (NodeEntity ne : listedDataSet) {
-			ne.setId(renumberedId);
-			ne.setRenumbered(true);
-			renumberedId++;
-		}
+				Collections.sort(listedDataSet); // by id
+
+				long renumberedId = 0;
+				for (NodeEntity ne : listedDataSet) {
+					ne.setId(renumberedId);
+					ne.setRenumbered(true);
+					renumberedId++;
+				}
+			}
+		});
 
 		graph.printStats();
 
 		// now clustering
 
-		Clusterizer clustering = new kClusters(graph, this);//new Clustering(graph, this);
-		long clusteringStart = System.currentTimeMillis();
-		clustering.doInit();
-		clustering.clusterize();
-		long clusteringFinish = System.currentTimeMillis();
-		System.out.println("\n\nClustering time: " + clusteringFinish +
-		clusteringStart);
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.CLUSTER) {
+			@Override
+			public void run() {
+				Clusterizer clustering = new kClusters(graph, App.this);//new Clustering(graph, App.this);
+				long clusteringStart = System.currentTimeMillis();
+				clustering.doInit();
+				clustering.clusterize();
+				long clusteringFinish = System.currentTimeMillis();
+				System.out.println("\n\nClustering time: " + (clusteringFinish - clusteringStart));
+			}
+		});
 
 		if (DEVELOPMENT) {
 			computeBoundsOfExistingNodes(graph);
@@ -169,77 +339,451 @@ public class App {
 
 		if (!MOCKS) {
 			// add elev to regular nodes
-			System.out.println("WORKING ON ELEV");
-			DEMReader reader = new DEMReader();
-			Map<NodeEntity, DEMTile> nodeToDEMTile = new HashMap<NodeEntity, DEMTile>();
-			Map<String, DEMTile> nameToDEMTile = new HashMap<String, DEMTile>();
-
-			for (NodeEntity node : listedDataSet) {
-				String neededTile = reader.findNameOfTile(node.getLon(), node.getLat());
-
-				if (nameToDEMTile.keySet().contains(neededTile)) {
-					nodeToDEMTile.put(node, nameToDEMTile.get(neededTile));
-				} else {
-					nameToDEMTile.put(neededTile, new DEMTile(neededTile, reader));
-					nodeToDEMTile.put(node, nameToDEMTile.get(neededTile));
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.ELEVATE) {
+				@Override
+				public void run() {
+					elevate(listedDataSet);
+				}
+			});
+		}
+
+		if (MOCKS) {
+			maxElev = minElev = elevAvg = MOCK_ELEV;
+		}
+		
+		visualTest(graph, maxElev, null);
+		
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.WRITE) {
+			@Override
+			public void run() {
+				WriteOutputFiles wof = new WriteOutputFiles(PATH, NAME, listedDataSet, graph, App.this);
+
+				try {
+					wof.write();
+				} catch (IOException e) {
+					e.printStackTrace();
+					throw new RuntimeException("write");
+				}
+
+				writeBoundsGpx();
+			}
+		});
+
+		writePipelineReport();
+		
+		System.out.println("FINISHED");
+	}// compose
+
+	/**
+	 * every tile of the source into the graph, or into the shards
+	 */
+	private void ingest(TileSource source, ShardedMerge sharded) {
+		long ingestStart = System.currentTimeMillis();
+		if (PIPELINED_LOADING) {
+			int maxShotId = source.getNmbOfShots() - 1;
+			System.out.println("NmbOfShots " + (maxShotId + 1) + " maxShotId " + maxShotId);
+			List<TileLoader> loaders = new ArrayList<TileLoader>();
+			for (int i = 0; i < LOADER_THREADS; i++) {
+				loaders.add(source.newLoader());
+			}
+			// tiles come validated by loader threads, in shot order
+			TilePipeline tilePipeline = new TilePipeline(loaders, LOADER_QUEUE_CAPACITY, 0, maxShotId);
+			tilePipeline.start();
+			while (tilePipeline.hasNext()) {
+				Tile tile = tilePipeline.take();
+				printTileInfo(tile, tile.getShotId());
+				lastShotLoaded = Math.max(lastShotLoaded, tile.getShotId());
+				buildIn(sharded, tile);
+			}
+			tilePipeline.finish();
+		} else {
+			// iterate regular tiles
+			for (Tile tile : source) {
+				printTileInfo(tile, tile.getShotId());
+				lastShotLoaded = Math.max(lastShotLoaded, tile.getShotId());
+				// if smth goes wrong, throw exception, no attempt to fix
+				performTestsOnTile("regular tile", tile);
+				buildIn(sharded, tile);
+			}
+		}
+		source.close();
+		System.out.println("Ingest from " + source.getName() + " ms: "
+				+ (System.currentTimeMillis() - ingestStart));
+	}
+
+	private void elevate(List<NodeEntity> listedDataSet) {
+		System.out.println("WORKING ON ELEV");
+		DEMReader reader = new DEMReader();
+		Map<NodeEntity, DEMTile> nodeToDEMTile = new HashMap<NodeEntity, DEMTile>();
+		Map<String, DEMTile> nameToDEMTile = new HashMap<String, DEMTile>();
+
+		for (NodeEntity node : listedDataSet) {
+			String neededTile = reader.findNameOfTile(node.getLon(), node.getLat());
+
+			if (nameToDEMTile.keySet().contains(neededTile)) {
+				nodeToDEMTile.put(node, nameToDEMTile.get(neededTile));
+			} else {
+				nameToDEMTile.put(neededTile, new DEMTile(neededTile, reader));
+				nodeToDEMTile.put(node, nameToDEMTile.get(neededTile));
+			}
+		}
+
+		System.out.println("Tiles needed:");
+		for (String tile : nameToDEMTile.keySet())
+			System.out.println(tile);
+
+		System.out.println("Reading elevs");
+
+		for (NodeEntity node : listedDataSet) {
+			if(node == null){
+				System.err.println("App: NULL in listedDataSet");
+			}
+			DEMTile tile = nodeToDEMTile.get(node);
+			try {
+				elev = tile.getElev(node.getLat(), node.getLon());
+				if (!isWithinBounds(elev)) {
+					System.err.println("ELEV CORRECTION NEEDED on:\n" + node.hashCode());
+					node.setNeedsElevCorr(true);
+					voidCounter++;
 				}
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
 
-			System.out.println("Tiles needed:");
-			for (String tile : nameToDEMTile.keySet())
-				System.out.println(tile);
+			// raw elev set for all nodes, filtering is much better done in
+			// client app
+			node.setElev(elev);
+
+			if (elev > maxElev)
+				maxElev = elev;
+			if (elev < minElev)
+				minElev = elev;
+			elevSum += (long) elev;
+		}
+
+		elevAvg = (short) (elevSum / (long) (listedDataSet.size()));
+		System.out.println("Max elev: " + maxElev);
+		System.out.println("Min elev: " + minElev);
+		System.out.println("Elev avg: " + elevAvg);
+		System.err.println("Voids: " + voidCounter);
+	}
+
+	private void writePipelineReport() {
+		if (!PIPELINE_REPORT)
+			return;
+		String runName = "pipeline_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+		pipeline.writeReport(new File(PATH + File.separator + NAME + File.separator + "pipeline"), runName,
+				DB_names.NAME);
+	}
 
-			System.out.println("Reading elevs");
+	/**
+	 * prune, cut, renumber, clustering, elev and output on the CompactGraph
+	 */
+	private void composeCompact() {
+		long heapBefore = usedHeap();
+		int nodesBefore = graph.getDatasetSize();
+		compact = CompactGraph.freeze(graph);
+		graph.releaseDataSet();
+		long heapAfter = usedHeap();
+		System.out.println("\n\nHEAP used with Graph: " + heapBefore + " per node: "
+				+ (nodesBefore == 0 ? 0 : heapBefore / nodesBefore));
+		System.out.println("HEAP used with CompactGraph: " + heapAfter + " per node: "
+				+ (compact.getSize() == 0 ? 0 : heapAfter / compact.getSize()) + " store: " + NODE_STORE);
 
-			for (NodeEntity node : listedDataSet) {
-				if(node == null){
-					System.err.println("App: NULL in listedDataSet");
+		CompactGraph merged = INCREMENTAL ? compact.subgraph(all(compact.getSize())) : null;
+		checkpoint(StageCheckpoints.Stage.MERGE, compact);
+		runStages(compact, StageCheckpoints.Stage.MERGE);
+		if (INCREMENTAL)
+			new GraphState(GRAPH_STATE_PATH, DB_names.TABLE_NODES).write(merged, compact, lastShotLoaded);
+		finishCompact(compact, false);
+	}
+
+	/**
+	 * prune, cut and elev after done, the last stage already applied to
+	 * compact
+	 */
+	private void runStages(final CompactGraph compact, StageCheckpoints.Stage done) {
+		if (isPending(done, StageCheckpoints.Stage.PRUNE)) {
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.PRUNE) {
+				@Override
+				public void run() {
+					compact.prune();
 				}
-				DEMTile tile = nodeToDEMTile.get(node);
-				try {
-					elev = tile.getElev(node.getLat(), node.getLon());
-					if (!isWithinBounds(elev)) {
-						System.err.println("ELEV CORRECTION NEEDED on:\n" + node.hashCode());
-						node.setNeedsElevCorr(true);
-						voidCounter++;
+			});
+			checkpoint(StageCheckpoints.Stage.PRUNE, compact);
+		}
+		if (isPending(done, StageCheckpoints.Stage.CUT)) {
+			if (SIMPLIFY_TOLERANCE_M > 0) {
+				pipeline.run(new StagePipeline.NamedStage(StagePipeline.SIMPLIFY) {
+					@Override
+					public void run() {
+						compact.simplifyChains(SIMPLIFY_TOLERANCE_M);
 					}
-				} catch (Exception e) {
-					e.printStackTrace();
+				});
+			} else {
+				pipeline.run(new StagePipeline.NamedStage(StagePipeline.CUT) {
+					@Override
+					public void run() {
+						compact.contractAlignedNodes();
+					}
+				});
+			}
+			checkpoint(StageCheckpoints.Stage.CUT, compact);
+		}
+		if (isPending(done, StageCheckpoints.Stage.ELEVATION)) {
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.ELEVATE) {
+				@Override
+				public void run() {
+					elevate(compact);
 				}
+			});
+			checkpoint(StageCheckpoints.Stage.ELEVATION, compact);
+		}
+	}
+
+	private static boolean isPending(StageCheckpoints.Stage done, StageCheckpoints.Stage stage) {
+		return done.ordinal() < stage.ordinal();
+	}
+
+	private void checkpoint(StageCheckpoints.Stage stage, CompactGraph compact) {
+		if (checkpoints != null)
+			checkpoints.write(stage, compact);
+	}
+
+	/**
+	 * what the merged graph depends on: rows per shot in the database, or
+	 * the snapshot files when reading from the cache alone. Same staleness
+	 * rule as the snapshot cache, an edit keeping the row counts of every
+	 * shot goes unnoticed.
+	 */
+	private String inputFingerprint(TileSource source) {
+		long start = System.currentTimeMillis();
+		int nmbOfShots = source.getNmbOfShots();
+		StageCheckpoints.Fingerprint fingerprint = new StageCheckpoints.Fingerprint();
+		// a disabled stage changes what every later checkpoint holds
+		fingerprint.add(DB_names.NAME).add(Arrays.toString(DISABLED_STAGES)).add(nmbOfShots);
+		if (SOURCE == Source.SNAPSHOT) {
+			TileSnapshotCache cache = new TileSnapshotCache(SNAPSHOT_CACHE_PATH, DB_names.TABLE_NODES);
+			for (int shot = 0; shot < nmbOfShots; shot++)
+				fingerprint.add(cache.lengthOf(shot)).add(cache.lastModifiedOf(shot));
+		} else {
+			ShotRowCounts counts = ShotRowCounts
+					.load(sourceSettings != null ? sourceSettings : JdbcSettings.fromHibernateConfig());
+			for (int shot = 0; shot < nmbOfShots; shot++)
+				fingerprint.add(counts.getNodeRows(shot)).add(counts.getAdjacencyRows(shot));
+		}
+		String hex = fingerprint.toHex();
+		System.out.println("Input fingerprint " + hex + " ms: " + (System.currentTimeMillis() - start));
+		return hex;
+	}
 
-				// raw elev set for all nodes, filtering is much better done in
-				// client app
-				node.setElev(elev);
+	/**
+	 * shots after the last one in the state merged into it, prune, cut and
+	 * elev only over the components the new shots touched, the rest of the
+	 * previous result kept as it is
+	 */
+	private void composeIncremental(GraphState state, int lastShot) {
+		TileSource source = createTileSource();
+		int maxShotId = source.getNmbOfShots() - 1;
+		System.out.println("INCREMENTAL from shot " + (lastShot + 1) + " to maxShotId " + maxShotId);
+		if (maxShotId <= lastShot) {
+			source.close();
+			System.out.println("No new shots, FINISHED");
+			return;
+		}
+		final CompactGraph merged = state.readMerged();
+		CompactGraph previous = state.readFinal();
+		final IncrementalMerge incremental = new IncrementalMerge(merged);
+		compact = merged;
+		final TileLoader loader = source.newLoader();
+		final int firstShot = lastShot + 1;
+		final int lastNewShot = maxShotId;
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.LOAD) {
+			@Override
+			public void run() {
+				for (int shot = firstShot; shot <= lastNewShot; shot++) {
+					Tile tile = loader.loadTile(shot);
+					printTileInfo(tile, shot);
+					// if smth goes wrong, throw exception, no attempt to fix
+					performTestsOnTile("regular tile", tile);
+					incremental.buildIn(tile);
+				}
+			}
+		});
+		source.close();
 
-				if (elev > maxElev)
-					maxElev = elev;
-				if (elev < minElev)
-					minElev = elev;
-				elevSum += (long) elev;
+		final CompactGraph[] updatedHolder = new CompactGraph[1];
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.MERGE) {
+			@Override
+			public void run() {
+				updatedHolder[0] = compact = incremental.merge();
 			}
+		});
+		CompactGraph updated = updatedHolder[0];
+		boolean[] affected = updated.componentsOf(incremental.getTouched());
 
-			elevAvg = (short) (elevSum / (long) (listedDataSet.size()));
-			System.out.println("Max elev: " + maxElev);
-			System.out.println("Min elev: " + minElev);
-			System.out.println("Elev avg: " + elevAvg);
-			System.err.println("Voids: " + voidCounter);
-		} // if( ! mocks)
+		// previous results of the affected components go, by original id
+		int nmbAffectedOld = 0;
+		for (int i = 0; i < merged.getSize(); i++)
+			if (affected[i])
+				nmbAffectedOld++;
+		long[] affectedIds = new long[nmbAffectedOld];
+		int k = 0;
+		for (int i = 0; i < merged.getSize(); i++)
+			if (affected[i])
+				affectedIds[k++] = updated.getId(i);
+		Arrays.sort(affectedIds);
+		boolean[] keep = new boolean[previous.getSize()];
+		for (int i = 0; i < previous.getSize(); i++)
+			keep[i] = Arrays.binarySearch(affectedIds, previous.getId(i)) < 0;
 
-		if (MOCKS) {
-			maxElev = minElev = elevAvg = MOCK_ELEV;
+		CompactGraph delta = updated.subgraph(affected);
+		System.out.println("INCREMENTAL: nodes in touched components: " + delta.getSize() + " of "
+				+ updated.getSize());
+		compact = delta;
+		runStages(delta, StageCheckpoints.Stage.MERGE);
+		delta.printStats();
+
+		CompactGraph result = compact = CompactGraph.concat(previous.subgraph(keep), delta);
+		state.write(updated, result, maxShotId);
+		finishCompact(result, false);
+	}
+
+	private void buildIn(ShardedMerge sharded, Tile tile) {
+		if (sharded != null)
+			sharded.buildIn(tile);
+		else
+			graph.buildIn(tile);
+	}
+
+	private static boolean[] all(int size) {
+		boolean[] all = new boolean[size];
+		Arrays.fill(all, true);
+		return all;
+	}
+
+	/**
+	 * cell by cell of the spatial index, the DEM tile only looked up by name
+	 * when the degree square changes
+	 */
+	private void elevate(final CompactGraph compact) {
+		System.out.println("WORKING ON ELEV");
+		final DEMReader reader = new DEMReader();
+		final Map<String, DEMTile> nameToDEMTile = new HashMap<String, DEMTile>();
+		final long[] lastSquare = { Long.MIN_VALUE };
+		final DEMTile[] lastTile = new DEMTile[1];
+		SpatialGrid grid = compact.getSpatialIndex();
+		for (int cell = 0; cell < grid.getCellCount(); cell++) {
+			grid.forEachInCell(cell, new SpatialGrid.Visitor() {
+				@Override
+				public void visit(int i) {
+					double lat = compact.getLat(i);
+					double lon = compact.getLon(i);
+					long square = ((long) Math.floor(lat) << 32) | ((long) Math.floor(lon) & 0xffffffffL);
+					if (square != lastSquare[0]) {
+						String neededTile = reader.findNameOfTile(lon, lat);
+						DEMTile tile = nameToDEMTile.get(neededTile);
+						if (tile == null) {
+							tile = new DEMTile(neededTile, reader);
+							nameToDEMTile.put(neededTile, tile);
+						}
+						lastSquare[0] = square;
+						lastTile[0] = tile;
+					}
+					try {
+						elev = lastTile[0].getElev(lat, lon);
+						if (!isWithinBounds(elev)) {
+							System.err.println("ELEV CORRECTION NEEDED on:\n" + compact.getId(i));
+							voidCounter++;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+					// raw elev set for all nodes, filtering is much better done in
+					// client app
+					compact.setElev(i, elev);
+				}
+			});
 		}
-		
-		visualTest(graph, maxElev, null);
-		
-		WriteOutputFiles wof = new WriteOutputFiles(PATH, NAME, listedDataSet, graph, this);
-		
-		try {
-			wof.write();
-		} catch (IOException e) {
-			e.printStackTrace();
-			throw new RuntimeException("write");
+		System.out.println("Tiles needed:");
+		for (String tile : nameToDEMTile.keySet())
+			System.out.println(tile);
+		System.err.println("Voids: " + voidCounter);
+	}
+
+	/**
+	 * elev stats, renumber, clustering and output, always over the whole region
+	 */
+	private void finishCompact(final CompactGraph compact, boolean clustered) {
+		for (int i = 0; i < compact.getSize(); i++) {
+			short e = compact.getElev(i);
+			if (e > maxElev)
+				maxElev = e;
+			if (e < minElev)
+				minElev = e;
+			elevSum += (long) e;
 		}
-		
+		elevAvg = (short) (elevSum / (long) (compact.getSize()));
+		System.out.println("Max elev: " + maxElev);
+		System.out.println("Min elev: " + minElev);
+		System.out.println("Elev avg: " + elevAvg);
+
+		computeBoundsOfExistingNodes(compact);
+		if (!clustered) {
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.RENUMBER) {
+				@Override
+				public void run() {
+					compact.renumber();
+				}
+			});
+			compact.printStats();
+
+			pipeline.run(new StagePipeline.NamedStage(StagePipeline.CLUSTER) {
+				@Override
+				public void run() {
+					Clusterizer clustering = new kClusters(compact, App.this);
+					long clusteringStart = System.currentTimeMillis();
+					clustering.doInit();
+					clustering.clusterize();
+					long clusteringFinish = System.currentTimeMillis();
+					System.out.println("\n\nClustering time: " + (clusteringFinish - clusteringStart));
+				}
+			});
+			checkpoint(StageCheckpoints.Stage.CLUSTER, compact);
+		} else {
+			compact.printStats();
+		}
+
+		visualTest(compact, maxElev);
+
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.WRITE) {
+			@Override
+			public void run() {
+				WriteOutputFiles wof = new WriteOutputFiles(PATH, NAME, compact, App.this);
+				try {
+					wof.write();
+				} catch (IOException e) {
+					e.printStackTrace();
+					throw new RuntimeException("write");
+				}
+
+				writeBoundsGpx();
+			}
+		});
+
+		writePipelineReport();
+
+		System.out.println("FINISHED");
+	}
+
+	private long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private void writeBoundsGpx() {
 		//write gpx file visualizing bounds
 		Trackpoint NW = new Trackpoint(maxLat, minLon, (short)0);
 		Trackpoint NE = new Trackpoint(maxLat, maxLon, (short)0);
@@ -264,10 +808,7 @@ public class App {
 			// do nothing, better finish job
 			e.printStackTrace();
 		}
-		
-		
-		System.out.println("FINISHED");
-	}// compose
+	}
 
 	
 	
@@ -277,31 +818,53 @@ public class App {
 	
 	
 	
-	private void fixDataset(String stageOfAlgo) {
-		System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++");
-		System.out.println("fixDataset, stage: " + stageOfAlgo);
-		TileTester tester = new TileTester();
-		boolean testZero = tester.mapAdapterTestZeroAdj(graph.getRetrievableDataSet());
-		if (testZero == false) {
-			int culpritsSize = tester.getCulprits().size();
-			assert (culpritsSize > 0);
-			for (NodeEntity culprit : tester.getCulprits()) {
-				graph.removeNodeEntity(culprit);
-			}
-			System.out.println("zeroAdj nodes removed: " + culpritsSize);
+	private TileSource createTileSource() {
+		TileSource source;
+		JdbcSettings settings = null;
+		switch (SOURCE) {
+		case SNAPSHOT:
+			return new SnapshotTileSource(SNAPSHOT_CACHE_PATH, DB_names.TABLE_NODES);
+		case EMBEDDED:
+			EmbeddedTileSource embedded = new EmbeddedTileSource(EMBEDDED_DUMP, BULK_LOAD, JDBC_FETCH_SIZE);
+			settings = embedded.getSettings();
+			source = embedded;
+			break;
+		case JDBC:
+			settings = JdbcSettings.fromHibernateConfig();
+			source = new JdbcTileSource("JDBC/MySQL", settings, BULK_LOAD, JDBC_FETCH_SIZE);
+			break;
+		default:
+			source = new HibernateTileSource();
 		}
-
-		tester.resetCulprits();
-
-		boolean testMutualVis = tester.mapAdapterTestMutualVisibility(graph.getRetrievableDataSet());
-		if (testMutualVis == false) {
-			int culpritsSize = tester.getCulprits().size();
-			assert (culpritsSize > 0);
-			int newEdges  = graph.fixMutualVisibility();
-			System.out.println("newEdges by fixMutualVisibility: " + newEdges);
+		sourceSettings = settings;
+		if (SNAPSHOT_CACHE) {
+			if (settings == null)
+				settings = JdbcSettings.fromHibernateConfig();
+			return new CachedTileSource(source, new TileSnapshotCache(SNAPSHOT_CACHE_PATH, DB_names.TABLE_NODES),
+					ShotRowCounts.load(settings));
 		}
-		System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++");
+		return source;
+	}
 
+	private void fixDataset(final String stageOfAlgo) {
+		pipeline.run(new StagePipeline.NamedStage(StagePipeline.VALIDATE) {
+			@Override
+			public void run() {
+				System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++");
+				System.out.println("fixDataset, stage: " + stageOfAlgo);
+				DatasetValidator validator = DatasetValidator.validate(graph.getRetrievableDataSet(),
+						VALIDATION_THREADS);
+				validator.print(stageOfAlgo);
+				if (!validator.isValid()) {
+					int newEdges = graph.repair(validator);
+					System.out.println("zeroAdj nodes removed: " + validator.getZeroDegree().size());
+					System.out.println(
+							"FIX MUTUAL VISIBILITY: Reference to itself: " + validator.getSelfLoops().size());
+					System.out.println("newEdges by fixMutualVisibility: " + newEdges);
+				}
+				System.out.println("++++++++++++++++++++++++++++++++++++++++++++++++++");
+			}
+		});
 	}
 
 	private void performTestsOnTile(String stageOfAlgo, Tile tile) {
@@ -357,6 +920,39 @@ public class App {
 		printBounds();
 	}
 
+	public void computeBoundsOfExistingNodes(CompactGraph compact) {
+		double lat, lon;
+		for (int i = 0; i < compact.getSize(); i++) {
+			lat = compact.getLat(i);
+			lon = compact.getLon(i);
+			minLat = (lat < minLat) ? lat : minLat;
+			maxLat = (lat > maxLat) ? lat : maxLat;
+			minLon = (lon < minLon) ? lon : minLon;
+			maxLon = (lon > maxLon) ? lon : maxLon;
+		}
+		deltaLat = maxLat - minLat;
+		deltaLon = maxLon - minLon;
+		printBounds();
+	}
+
+	private void visualTest(CompactGraph compact, int maxAlt) {
+		ImageResource ir = new ImageResource(PIC_WIDTH_MAX_INDEX + 1, PIC_HEIGHT_MAX_INDEX + 1);
+		LineMaker lm = new LineMaker(ir);
+		int x1, x2, y1, y2, colorValue;
+		for (int i = 0; i < compact.getSize(); i++) {
+			x1 = convertLonToPixX(compact.getLon(i));
+			y1 = convertLatToPixY(compact.getLat(i));
+			for (int e = compact.firstEdge(i); e < compact.endEdge(i); e++) {
+				int adj = compact.target(e);
+				x2 = convertLonToPixX(compact.getLon(adj));
+				y2 = convertLatToPixY(compact.getLat(adj));
+				colorValue = interpolateColorToMaxAlt((compact.getElev(i) + compact.getElev(adj)) / 2, maxAlt);
+				lm.drawLine(x1, y1, x2, y2, colorValue, 255 - colorValue, 0);
+			}
+		}
+		ir.draw();
+	}
+
 	/**
 	 * culprits allowed null
 	 */
@@ -519,10 +1115,10 @@ public class App {
 	@SuppressWarnings("unused")
 	private void testEquals() {
 		System.out.println("test equals");
-		Tile tile1 = new Tile(0);
+		Tile tile1 = new HibernateTileLoader().loadTile(0);
 		System.out.println("tile1 returned");
 		tile1.testDumpData();
-		Tile tile2 = new Tile(1);
+		Tile tile2 = new HibernateTileLoader().loadTile(1);
 		System.out.println("tile2 returned");
 		tile2.testDumpData();
 		System.out.println("sizes " + tile1.getSize() + " " + tile2.getSize());
@@ -8,6 +8,9 @@ public class DB_names {
 	public static final String TABLE_SHOTS = NAME + "_shots";
 	public static final String TABLE_NODES = NAME + "_nodes";
 	public static final String TABLE_ADJACENTS = NAME + "_adjacents";
+	// join columns generated by hibernate for NodeEntity.adjacents
+	public static final String COLUMN_ADJACENTS_FROM = "NodeEntity_id";
+	public static final String COLUMN_ADJACENTS_TO = "adjacents_id";
 	//+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 	
 }
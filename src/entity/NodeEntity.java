@@ -13,6 +13,7 @@ import javax.persistence.ManyToMany;
 import javax.persistence.Table;
 
 import core.App;
+import utils.QuantizedIndex;
 
 @Entity
 @Table(name = DB_names.TABLE_NODES)
@@ -51,7 +52,6 @@ public class NodeEntity implements Comparable<NodeEntity> {
 	private transient boolean needsElevCorr = false;
 	private transient boolean availableForCutConsideration = true;
 	public transient boolean isCentroid = false;
-	public transient double cartesianDistFromSelectedPoints = Double.MAX_VALUE;
 
 	// very very important
 	private static final transient int HASHCODE_MULTIPLICATION_LON_LAT = 10000;
@@ -206,6 +206,18 @@ public class NodeEntity implements Comparable<NodeEntity> {
 		return lonB && latB;
 	}
 
+	/**
+	 * the two quantized coordinates equalsLonLat compares, packed into one long
+	 */
+	public long quantizedKey() {
+		return quantizedKey(lon, lat);
+	}
+
+	public static long quantizedKey(double lon, double lat) {
+		return QuantizedIndex.key((int) (lon * HASHCODE_MULTIPLICATION_LON_LAT),
+				(int) (lat * HASHCODE_MULTIPLICATION_LON_LAT));
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,11 @@
+package ifaces;
+
+/**
+ * One named unit of compose(), run and measured by the StagePipeline.
+ */
+public interface PipelineStage {
+
+	String getName();
+
+	void run();
+}
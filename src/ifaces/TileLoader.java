@@ -0,0 +1,8 @@
+package ifaces;
+
+import building_blocks.Tile;
+
+public interface TileLoader {
+
+	Tile loadTile(int shotId);
+}
@@ -0,0 +1,21 @@
+package ifaces;
+
+import building_blocks.Tile;
+
+/**
+ * Where tiles come from. Iteration hands over every tile of the region in
+ * shot order, newLoader() gives per shot access for loader threads.
+ */
+public interface TileSource extends Iterable<Tile> {
+
+	String getName();
+
+	int getNmbOfShots();
+
+	/**
+	 * one loader per thread, closed together with the source
+	 */
+	TileLoader newLoader();
+
+	void close();
+}
@@ -0,0 +1,174 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import building_blocks.Tile;
+import entity.DB_names;
+import entity.NodeEntity;
+
+/**
+ * Whole region in three scans: _nodes ordered by shotId, _adjacents ordered
+ * by the shotId of the owning node and the edges crossing shots ordered by
+ * the shotId of the node they point to, streamed at the same time over three
+ * connections and merge joined on shotId. Only the rows of the tile being
+ * cut are held in memory. Tiles come out as JdbcTileLoader loads them.
+ *
+ * Shots without nodes produce no tile. Shots from nmbOfShots on are left out,
+ * as the shot by shot path leaves them out: rows past the shots table may
+ * belong to a shot still being written.
+ */
+public class BulkTileStream implements Iterator<Tile> {
+
+	private static final String ALL_NODES = "SELECT id, shotId, lon, lat, weight FROM " + DB_names.TABLE_NODES
+			+ " WHERE shotId < ? ORDER BY shotId";
+
+	private static final String ALL_ADJACENTS = "SELECT f.shotId, a." + DB_names.COLUMN_ADJACENTS_FROM
+			+ ", t.id, t.shotId, t.lon, t.lat, t.weight FROM " + DB_names.TABLE_ADJACENTS + " a JOIN "
+			+ DB_names.TABLE_NODES + " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN "
+			+ DB_names.TABLE_NODES + " t ON a." + DB_names.COLUMN_ADJACENTS_TO
+			+ " = t.id WHERE f.shotId < ? ORDER BY f.shotId";
+
+	private static final String ALL_BACK_EDGES = "SELECT t.shotId, a." + DB_names.COLUMN_ADJACENTS_FROM + ", a."
+			+ DB_names.COLUMN_ADJACENTS_TO + " FROM " + DB_names.TABLE_ADJACENTS + " a JOIN " + DB_names.TABLE_NODES
+			+ " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN " + DB_names.TABLE_NODES + " t ON a."
+			+ DB_names.COLUMN_ADJACENTS_TO + " = t.id WHERE f.shotId <> t.shotId AND t.shotId < ? ORDER BY t.shotId";
+
+	private final Connection nodesConnection;
+	private final Connection adjacentsConnection;
+	private final Connection backEdgesConnection;
+	private final PreparedStatement nodesStatement;
+	private final PreparedStatement adjacentsStatement;
+	private final PreparedStatement backEdgesStatement;
+	private final ResultSet nodes;
+	private final ResultSet adjacents;
+	private final ResultSet backEdges;
+	// cursor already stands on the first row of the next tile
+	private boolean nodesPending;
+	private boolean adjacentsPending;
+	private boolean backEdgesPending;
+	private long rowsRead = 0;
+
+	public BulkTileStream(JdbcSettings settings, int fetchSize, int nmbOfShots) {
+		nodesConnection = settings.openConnection();
+		adjacentsConnection = settings.openConnection();
+		backEdgesConnection = settings.openConnection();
+		try {
+			nodesStatement = nodesConnection.prepareStatement(ALL_NODES, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			nodesStatement.setFetchSize(fetchSize);
+			adjacentsStatement = adjacentsConnection.prepareStatement(ALL_ADJACENTS, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			adjacentsStatement.setFetchSize(fetchSize);
+			backEdgesStatement = backEdgesConnection.prepareStatement(ALL_BACK_EDGES, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			backEdgesStatement.setFetchSize(fetchSize);
+			nodesStatement.setLong(1, nmbOfShots);
+			adjacentsStatement.setLong(1, nmbOfShots);
+			backEdgesStatement.setLong(1, nmbOfShots);
+			nodes = nodesStatement.executeQuery();
+			adjacents = adjacentsStatement.executeQuery();
+			backEdges = backEdgesStatement.executeQuery();
+			nodesPending = nodes.next();
+			adjacentsPending = adjacents.next();
+			backEdgesPending = backEdges.next();
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while opening bulk scans");
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return nodesPending;
+	}
+
+	@Override
+	public Tile next() {
+		if (!nodesPending)
+			throw new NoSuchElementException();
+		try {
+			long shotId = nodes.getLong(2);
+			List<NodeEntity> data = new ArrayList<NodeEntity>();
+			Map<Long, NodeEntity> byId = new HashMap<Long, NodeEntity>();
+			while (nodesPending && nodes.getLong(2) == shotId) {
+				NodeEntity ne = JdbcTileLoader.nodeFromRow(nodes, 1);
+				data.add(ne);
+				byId.put(ne.getId(), ne);
+				rowsRead++;
+				nodesPending = nodes.next();
+			}
+
+			// adjacents of shots without nodes cannot be attached anywhere
+			while (adjacentsPending && adjacents.getLong(1) < shotId) {
+				adjacentsPending = adjacents.next();
+			}
+			Map<Long, NodeEntity> foreign = new HashMap<Long, NodeEntity>();
+			int adjacencyRows = 0;
+			int backEdgeRows = 0;
+			while (adjacentsPending && adjacents.getLong(1) == shotId) {
+				NodeEntity from = byId.get(adjacents.getLong(2));
+				long toId = adjacents.getLong(3);
+				NodeEntity to = byId.get(toId);
+				if (to == null) {
+					to = foreign.get(toId);
+					if (to == null) {
+						to = JdbcTileLoader.nodeFromRow(adjacents, 3);
+						foreign.put(toId, to);
+					}
+				}
+				from.addToAdj(to);
+				adjacencyRows++;
+				rowsRead++;
+				adjacentsPending = adjacents.next();
+			}
+
+			while (backEdgesPending && backEdges.getLong(1) < shotId) {
+				backEdgesPending = backEdges.next();
+			}
+			while (backEdgesPending && backEdges.getLong(1) == shotId) {
+				JdbcTileLoader.addBackEdge(foreign.get(backEdges.getLong(2)), byId.get(backEdges.getLong(3)));
+				backEdgeRows++;
+				rowsRead++;
+				backEdgesPending = backEdges.next();
+			}
+			Tile tile = new Tile((int) shotId, data);
+			tile.setRowCounts(adjacencyRows, backEdgeRows);
+			return tile;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while streaming bulk scans");
+		}
+	}
+
+	/**
+	 * node rows plus adjacency rows read so far
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	public void close() {
+		try {
+			nodes.close();
+			adjacents.close();
+			backEdges.close();
+			nodesStatement.close();
+			adjacentsStatement.close();
+			backEdgesStatement.close();
+			nodesConnection.close();
+			adjacentsConnection.close();
+			backEdgesConnection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
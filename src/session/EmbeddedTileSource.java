@@ -0,0 +1,44 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-process database loaded from an SQL dump, same queries as against
+ * MySQL, no server needed. The dump has to be a script the embedded engine
+ * runs (e.g. mysqldump --compatible=ansi --skip-extended-insert), the H2
+ * driver has to be on the classpath.
+ */
+public class EmbeddedTileSource extends JdbcTileSource {
+
+	// the in-memory database lives as long as this connection
+	private final Connection keepAlive;
+
+	public EmbeddedTileSource(String dumpPath, boolean bulk, int fetchSize) {
+		super("embedded/" + dumpPath, JdbcSettings.embedded(), bulk, fetchSize);
+		long start = System.currentTimeMillis();
+		keepAlive = getSettings().openConnection();
+		try {
+			keepAlive.setReadOnly(false);
+			Statement st = keepAlive.createStatement();
+			st.execute("RUNSCRIPT FROM '" + dumpPath.replace("'", "''") + "'");
+			st.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while loading dump " + dumpPath);
+		}
+		System.out.println("Embedded database loaded from " + dumpPath + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		try {
+			keepAlive.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
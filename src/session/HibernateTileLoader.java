@@ -0,0 +1,15 @@
+package session;
+
+import building_blocks.Tile;
+import ifaces.TileLoader;
+
+/**
+ * hibernate entity loading, one session per shot, safe to share among threads
+ */
+public class HibernateTileLoader implements TileLoader {
+
+	@Override
+	public Tile loadTile(int shotId) {
+		return new Tile(shotId, SessionAdapter.getInstance().loadNodeEntitiesByShotId(shotId));
+	}
+}
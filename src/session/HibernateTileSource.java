@@ -0,0 +1,43 @@
+package session;
+
+import java.util.Iterator;
+
+import building_blocks.ShotIterator;
+import building_blocks.Tile;
+import ifaces.TileLoader;
+import ifaces.TileSource;
+
+/**
+ * MySQL through hibernate entities
+ */
+public class HibernateTileSource implements TileSource {
+
+	private int nmbOfShots = -1;
+
+	@Override
+	public String getName() {
+		return "hibernate/MySQL";
+	}
+
+	@Override
+	public int getNmbOfShots() {
+		if (nmbOfShots < 0)
+			nmbOfShots = SessionAdapter.getInstance().loadNmbOfShots();
+		return nmbOfShots;
+	}
+
+	@Override
+	public TileLoader newLoader() {
+		return new HibernateTileLoader();
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		return new ShotIterator(newLoader(), getNmbOfShots());
+	}
+
+	@Override
+	public void close() {
+		// session factory lives as long as the application
+	}
+}
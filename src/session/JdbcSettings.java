@@ -0,0 +1,63 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.hibernate.cfg.Configuration;
+
+/**
+ * where raw JDBC connections go, either the MySQL database configured in
+ * hibernate.cfg.xml (read only, no SessionFactory is built) or an embedded
+ * in-process database
+ */
+public class JdbcSettings {
+
+	// H2 in MySQL compatibility mode, kept alive until the last connection closes
+	private static final String EMBEDDED_DRIVER = "org.h2.Driver";
+	private static final String EMBEDDED_URL = "jdbc:h2:mem:graphconcat;MODE=MySQL;DB_CLOSE_DELAY=0";
+
+	private final String driverClass;
+	private final String url;
+	private final Properties props;
+
+	public JdbcSettings(String driverClass, String url, Properties props) {
+		this.driverClass = driverClass;
+		this.url = url;
+		this.props = props;
+	}
+
+	/**
+	 * server side cursor so that setFetchSize() is honoured
+	 */
+	public static JdbcSettings fromHibernateConfig() {
+		Configuration cf = new Configuration().configure("hibernate.cfg.xml");
+		Properties props = new Properties();
+		props.setProperty("user", cf.getProperty("hibernate.connection.username").trim());
+		props.setProperty("password", cf.getProperty("hibernate.connection.password").trim());
+		props.setProperty("useCursorFetch", "true");
+		return new JdbcSettings(cf.getProperty("hibernate.connection.driver_class").trim(),
+				cf.getProperty("hibernate.connection.url").trim(), props);
+	}
+
+	public static JdbcSettings embedded() {
+		return new JdbcSettings(EMBEDDED_DRIVER, EMBEDDED_URL, new Properties());
+	}
+
+	public Connection openConnection() {
+		try {
+			Class.forName(driverClass);
+			Connection connection = DriverManager.getConnection(url, props);
+			connection.setReadOnly(true);
+			return connection;
+		} catch (ClassNotFoundException | SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while opening JDBC connection to " + url);
+		}
+	}
+
+	public String getUrl() {
+		return url;
+	}
+}
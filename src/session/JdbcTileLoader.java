@@ -0,0 +1,175 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import building_blocks.Tile;
+import entity.DB_names;
+import entity.NodeEntity;
+import ifaces.TileLoader;
+
+/**
+ * Loads a Tile straight from the _nodes and _adjacents tables, forward only
+ * cursors, no hibernate session, no persistence context.
+ *
+ * Adjacents pointing out of the shot are materialized as NodeEntities holding
+ * their own edges back into the shot, as hibernate's eager fetch hands them
+ * over and as the tile validation (TileTester.testMutualVisibility) expects.
+ * They are not part of Tile.getData(), only referenced. Their edges further
+ * out of the shot are left off, nothing reads them.
+ *
+ * Not thread safe, one loader (one connection) per thread.
+ */
+public class JdbcTileLoader implements TileLoader {
+
+	private static final String NODES_BY_SHOT = "SELECT id, shotId, lon, lat, weight FROM " + DB_names.TABLE_NODES
+			+ " WHERE shotId = ?";
+
+	private static final String ADJACENTS_BY_SHOT = "SELECT a." + DB_names.COLUMN_ADJACENTS_FROM
+			+ ", t.id, t.shotId, t.lon, t.lat, t.weight FROM " + DB_names.TABLE_ADJACENTS + " a JOIN "
+			+ DB_names.TABLE_NODES + " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN "
+			+ DB_names.TABLE_NODES + " t ON a." + DB_names.COLUMN_ADJACENTS_TO + " = t.id WHERE f.shotId = ?";
+
+	// edges of nodes of other shots into the shot
+	private static final String BACK_EDGES_BY_SHOT = "SELECT a." + DB_names.COLUMN_ADJACENTS_FROM + ", a."
+			+ DB_names.COLUMN_ADJACENTS_TO + " FROM " + DB_names.TABLE_ADJACENTS + " a JOIN " + DB_names.TABLE_NODES
+			+ " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN " + DB_names.TABLE_NODES + " t ON a."
+			+ DB_names.COLUMN_ADJACENTS_TO + " = t.id WHERE t.shotId = ? AND f.shotId <> ?";
+
+	private final JdbcSettings settings;
+	private Connection connection = null;
+	private final int fetchSize;
+	private long rowsRead = 0;
+
+	/**
+	 * connection opened on the first load, a loader behind a warm cache never
+	 * touches the database
+	 */
+	public JdbcTileLoader(JdbcSettings settings, int fetchSize) {
+		this.settings = settings;
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	public Tile loadTile(int shotId) {
+		List<NodeEntity> data = new ArrayList<NodeEntity>();
+		Map<Long, NodeEntity> byId = new HashMap<Long, NodeEntity>();
+		int adjacencyRows = 0;
+		int backEdgeRows = 0;
+		try {
+			PreparedStatement nodes = prepare(NODES_BY_SHOT);
+			try {
+				nodes.setLong(1, shotId);
+				ResultSet rs = nodes.executeQuery();
+				while (rs.next()) {
+					NodeEntity ne = nodeFromRow(rs, 1);
+					data.add(ne);
+					byId.put(ne.getId(), ne);
+					rowsRead++;
+				}
+				rs.close();
+			} finally {
+				nodes.close();
+			}
+
+			Map<Long, NodeEntity> foreign = new HashMap<Long, NodeEntity>();
+			PreparedStatement adjacents = prepare(ADJACENTS_BY_SHOT);
+			try {
+				adjacents.setLong(1, shotId);
+				ResultSet rs = adjacents.executeQuery();
+				while (rs.next()) {
+					NodeEntity from = byId.get(rs.getLong(1));
+					long toId = rs.getLong(2);
+					NodeEntity to = byId.get(toId);
+					if (to == null) {
+						to = foreign.get(toId);
+						if (to == null) {
+							to = nodeFromRow(rs, 2);
+							foreign.put(toId, to);
+						}
+					}
+					from.addToAdj(to);
+					adjacencyRows++;
+					rowsRead++;
+				}
+				rs.close();
+			} finally {
+				adjacents.close();
+			}
+
+			PreparedStatement backEdges = prepare(BACK_EDGES_BY_SHOT);
+			try {
+				backEdges.setLong(1, shotId);
+				backEdges.setLong(2, shotId);
+				ResultSet rs = backEdges.executeQuery();
+				while (rs.next()) {
+					addBackEdge(foreign.get(rs.getLong(1)), byId.get(rs.getLong(2)));
+					backEdgeRows++;
+					rowsRead++;
+				}
+				rs.close();
+			} finally {
+				backEdges.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while loading shot " + shotId);
+		}
+		Tile tile = new Tile(shotId, data);
+		tile.setRowCounts(adjacencyRows, backEdgeRows);
+		return tile;
+	}
+
+	private PreparedStatement prepare(String sql) throws SQLException {
+		if (connection == null)
+			connection = settings.openConnection();
+		PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		ps.setFetchSize(fetchSize);
+		return ps;
+	}
+
+	/**
+	 * columns id, shotId, lon, lat, weight starting at firstColumn
+	 */
+	static NodeEntity nodeFromRow(ResultSet rs, int firstColumn) throws SQLException {
+		NodeEntity ne = new NodeEntity(rs.getLong(firstColumn + 1), rs.getDouble(firstColumn + 2),
+				rs.getDouble(firstColumn + 3), rs.getShort(firstColumn + 4), new HashSet<NodeEntity>());
+		ne.setId(rs.getLong(firstColumn));
+		return ne;
+	}
+
+	/**
+	 * foreign null: a node of another shot the shot does not point to, not
+	 * part of the tile at all
+	 */
+	static void addBackEdge(NodeEntity foreign, NodeEntity to) {
+		if (foreign != null)
+			foreign.addToAdj(to);
+	}
+
+	/**
+	 * node rows plus adjacency rows read so far
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	public void close() {
+		if (connection == null)
+			return;
+		try {
+			connection.close();
+			connection = null;
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import building_blocks.ShotIterator;
+import building_blocks.Tile;
+import entity.DB_names;
+import ifaces.TileLoader;
+import ifaces.TileSource;
+
+/**
+ * raw JDBC, shot by shot or, bulk, the whole region in three streamed scans
+ * (nodes, adjacents, back edges)
+ */
+public class JdbcTileSource implements TileSource {
+
+	private static final String LAST_NMB = "SELECT nmb FROM " + DB_names.TABLE_SHOTS + " ORDER BY id DESC";
+
+	private final String name;
+	private final JdbcSettings settings;
+	private final boolean bulk;
+	private final int fetchSize;
+	private int nmbOfShots = -1;
+	private final List<JdbcTileLoader> loaders = new ArrayList<JdbcTileLoader>();
+	private final List<BulkTileStream> streams = new ArrayList<BulkTileStream>();
+
+	public JdbcTileSource(String name, JdbcSettings settings, boolean bulk, int fetchSize) {
+		this.name = name;
+		this.settings = settings;
+		this.bulk = bulk;
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	public String getName() {
+		return name + (bulk ? " (bulk)" : "");
+	}
+
+	public JdbcSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * iteration streams the whole region, see BulkTileStream
+	 */
+	public boolean isBulk() {
+		return bulk;
+	}
+
+	@Override
+	public int getNmbOfShots() {
+		if (nmbOfShots >= 0)
+			return nmbOfShots;
+		Connection connection = settings.openConnection();
+		try {
+			Statement st = connection.createStatement();
+			st.setMaxRows(1);
+			ResultSet rs = st.executeQuery(LAST_NMB);
+			if (!rs.next())
+				throw new RuntimeException("HALT no shots in " + DB_names.TABLE_SHOTS);
+			nmbOfShots = rs.getInt(1);
+			rs.close();
+			st.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while reading number of shots");
+		} finally {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return nmbOfShots;
+	}
+
+	@Override
+	public synchronized TileLoader newLoader() {
+		JdbcTileLoader loader = new JdbcTileLoader(settings, fetchSize);
+		loaders.add(loader);
+		return loader;
+	}
+
+	@Override
+	public Iterator<Tile> iterator() {
+		if (bulk) {
+			BulkTileStream stream = new BulkTileStream(settings, fetchSize, getNmbOfShots());
+			streams.add(stream);
+			return stream;
+		}
+		return new ShotIterator(newLoader(), getNmbOfShots());
+	}
+
+	@Override
+	public void close() {
+		long rows = 0;
+		for (JdbcTileLoader loader : loaders) {
+			rows += loader.getRowsRead();
+			loader.close();
+		}
+		for (BulkTileStream stream : streams) {
+			rows += stream.getRowsRead();
+			stream.close();
+		}
+		System.out.println(getName() + " rows read: " + rows);
+		loaders.clear();
+		streams.clear();
+	}
+}
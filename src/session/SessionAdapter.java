@@ -15,6 +15,7 @@ import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.service.ServiceRegistry;
 
+import entity.DB_names;
 import entity.NmbShotsEntity;
 import entity.NodeEntity;
 
@@ -22,9 +23,9 @@ import entity.NodeEntity;
 public class SessionAdapter {
 
 	private SessionFactory sf = null;
-	private Session session = null;
 	
-	private static SessionAdapter myInstance = new SessionAdapter();
+	// booted on first use only, sources without MySQL never pay for it
+	private static SessionAdapter myInstance = null;
 	private SessionAdapter(){
 		
         Configuration cf = new Configuration().configure("hibernate.cfg.xml");
@@ -37,7 +38,9 @@ public class SessionAdapter {
         sf = cf.buildSessionFactory(sr);
 		
 	};
-	public static SessionAdapter getInstance(){
+	public static synchronized SessionAdapter getInstance(){
+		if (myInstance == null)
+			myInstance = new SessionAdapter();
 		return myInstance;
 	}
 	
@@ -52,6 +55,36 @@ public class SessionAdapter {
 		return data;
     }
 	
+	/**
+	 * nmb of the last row only, the shots table is not loaded
+	 * @return
+	 */
+	public int loadNmbOfShots(){
+		Transaction tx = null;
+		Integer nmb = null;
+		Session session = sf.openSession();
+		try {
+			tx = session.beginTransaction();
+			
+			String hql = "SELECT nmb FROM " + NmbShotsEntity.class.getName() + " ORDER BY id DESC";
+			
+			@SuppressWarnings("unchecked")
+			Query <Integer> query = session.createQuery(hql);
+			query.setMaxResults(1);
+			nmb = query.uniqueResult();
+			
+			tx.commit();
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			e.printStackTrace();
+		} finally {
+			session.close();
+		}
+		if (nmb == null)
+			throw new RuntimeException("HALT no shots in " + DB_names.TABLE_SHOTS);
+		return nmb;
+	}
+	
 	/**
 	 * 
 	 * @return
@@ -69,8 +102,9 @@ public class SessionAdapter {
 	private <T> List<T> load ( Class <T> cl){
 		Transaction tx = null;
 		List<T> data = new ArrayList<T>();
+		// local, loader threads may call in concurrently
+		Session session = sf.openSession();
 		try {
-	    	session = sf.openSession();
 			tx = session.beginTransaction();
 			
 			//deprecated now
@@ -101,8 +135,8 @@ public class SessionAdapter {
 	public List <NodeEntity> loadNodeEntitiesByShotId(long shotId){
 		Transaction tx = null;
 		List<NodeEntity> data = null;
+		Session session = sf.openSession();
 		try {
-	    	session = sf.openSession();
 			tx = session.beginTransaction();
 			
 			String hql = "FROM " + NodeEntity.class.getName() + " WHERE shotId = :shotId";
@@ -0,0 +1,87 @@
+package session;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import entity.DB_names;
+
+/**
+ * rows per shot in _nodes, in _adjacents by owning node and in _adjacents of
+ * other shots pointing into the shot, the rows JdbcTileLoader reads, three
+ * aggregate queries for the whole region, used to tell whether a cached tile
+ * is stale
+ */
+public class ShotRowCounts {
+
+	private static final String NODES_PER_SHOT = "SELECT shotId, COUNT(*) FROM " + DB_names.TABLE_NODES
+			+ " GROUP BY shotId";
+
+	// joined with the target node as the loader joins, dangling rows are not read
+	private static final String ADJACENTS_PER_SHOT = "SELECT f.shotId, COUNT(*) FROM " + DB_names.TABLE_ADJACENTS
+			+ " a JOIN " + DB_names.TABLE_NODES + " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN "
+			+ DB_names.TABLE_NODES + " t ON a." + DB_names.COLUMN_ADJACENTS_TO + " = t.id GROUP BY f.shotId";
+
+	private static final String BACK_EDGES_PER_SHOT = "SELECT t.shotId, COUNT(*) FROM " + DB_names.TABLE_ADJACENTS
+			+ " a JOIN " + DB_names.TABLE_NODES + " f ON a." + DB_names.COLUMN_ADJACENTS_FROM + " = f.id JOIN "
+			+ DB_names.TABLE_NODES + " t ON a." + DB_names.COLUMN_ADJACENTS_TO
+			+ " = t.id WHERE f.shotId <> t.shotId GROUP BY t.shotId";
+
+	private final Map<Integer, Integer> nodeRows = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> adjacencyRows = new HashMap<Integer, Integer>();
+	private final Map<Integer, Integer> backEdgeRows = new HashMap<Integer, Integer>();
+
+	private ShotRowCounts() {
+	}
+
+	public static ShotRowCounts load(JdbcSettings settings) {
+		ShotRowCounts counts = new ShotRowCounts();
+		Connection connection = settings.openConnection();
+		try {
+			counts.fill(connection, NODES_PER_SHOT, counts.nodeRows);
+			counts.fill(connection, ADJACENTS_PER_SHOT, counts.adjacencyRows);
+			counts.fill(connection, BACK_EDGES_PER_SHOT, counts.backEdgeRows);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("HALT while counting rows per shot");
+		} finally {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		return counts;
+	}
+
+	private void fill(Connection connection, String sql, Map<Integer, Integer> target) throws SQLException {
+		Statement st = connection.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(sql);
+			while (rs.next()) {
+				target.put((int) rs.getLong(1), (int) rs.getLong(2));
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+	}
+
+	public int getNodeRows(int shotId) {
+		Integer rows = nodeRows.get(shotId);
+		return rows == null ? 0 : rows;
+	}
+
+	public int getAdjacencyRows(int shotId) {
+		Integer rows = adjacencyRows.get(shotId);
+		return rows == null ? 0 : rows;
+	}
+
+	public int getBackEdgeRows(int shotId) {
+		Integer rows = backEdgeRows.get(shotId);
+		return rows == null ? 0 : rows;
+	}
+}
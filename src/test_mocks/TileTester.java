@@ -2,7 +2,6 @@ package test_mocks;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import building_blocks.Tile;
@@ -16,20 +15,6 @@ public class TileTester {
 		culprits = new LinkedList<NodeEntity>();
 	}
 
-	public boolean mapAdapterTestZeroAdj(Map<NodeEntity, NodeEntity> retrievableDataSet) {
-		List<NodeEntity> listedDataSet = new LinkedList<NodeEntity>(retrievableDataSet.keySet());
-		// mockId, data, verbose
-		Tile testTile = new Tile(1, listedDataSet, false);
-		return testZeroAdj(testTile);
-	}
-
-	public boolean mapAdapterTestMutualVisibility(Map<NodeEntity, NodeEntity> retrievableDataSet) {
-		List<NodeEntity> listedDataSet = new LinkedList<NodeEntity>(retrievableDataSet.keySet());
-		// mockId, data, verbose
-		Tile testTile = new Tile(1, listedDataSet, false);
-		return testMutualVisibility(testTile);
-	}
-
 	public boolean testZeroAdj(Tile tile) {
 		for (NodeEntity n : tile.getData()) {
 			if (n.getAdjacents() == null) {
@@ -0,0 +1,60 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * [0, size) split in contiguous ranges, one thread per range, joined before
+ * returning. The first failure of any worker, Errors included, is rethrown
+ * on the caller once every worker has ended, a checked one wrapped.
+ */
+public class ParallelRanges {
+
+	public interface Range {
+		void run(int worker, int from, int to);
+	}
+
+	/**
+	 * @param name thread name prefix
+	 */
+	public static void run(String name, int size, int threads, final Range range) {
+		if (threads <= 1 || size < 2 * threads) {
+			range.run(0, 0, size);
+			return;
+		}
+		Thread[] workers = new Thread[threads];
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		int chunk = (size + threads - 1) / threads;
+		for (int t = 0; t < threads; t++) {
+			final int worker = t;
+			final int from = Math.min(size, t * chunk);
+			final int to = Math.min(size, from + chunk);
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						range.run(worker, from, to);
+					} catch (Throwable e) {
+						e.printStackTrace();
+						failure.compareAndSet(null, e);
+					}
+				}
+			}, name + "-" + t);
+			workers[t].start();
+		}
+		for (int t = 0; t < threads; t++) {
+			try {
+				workers[t].join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT IN " + name + " - joining workers");
+			}
+		}
+		Throwable first = failure.get();
+		if (first instanceof RuntimeException)
+			throw (RuntimeException) first;
+		if (first instanceof Error)
+			throw (Error) first;
+		if (first != null)
+			throw new RuntimeException("HALT IN " + name + " - worker failed", first);
+	}
+}
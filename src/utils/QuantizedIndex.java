@@ -0,0 +1,98 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * long key to int value, open addressing with linear probing over two
+ * primitive arrays, no boxing, no entries. Values are non negative, -1 means
+ * absent. Capacity is a power of two kept at most half full.
+ *
+ * Keys are meant to be two quantized coordinates packed into one long, see
+ * NodeEntity.quantizedKey(), the hash spreads both halves.
+ */
+public class QuantizedIndex {
+
+	private static final int EMPTY = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size = 0;
+
+	public QuantizedIndex(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, EMPTY);
+		mask = capacity - 1;
+	}
+
+	public static long key(int lonQuantized, int latQuantized) {
+		return ((long) lonQuantized << 32) | (latQuantized & 0xFFFFFFFFL);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * @return value or -1
+	 */
+	public int get(long key) {
+		int s = slot(key);
+		while (values[s] != EMPTY) {
+			if (keys[s] == key)
+				return values[s];
+			s = (s + 1) & mask;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * @return the value already there, -1 when value has been inserted
+	 */
+	public int putIfAbsent(long key, int value) {
+		if (value < 0)
+			throw new RuntimeException("HALT negative value in QuantizedIndex");
+		int s = slot(key);
+		while (values[s] != EMPTY) {
+			if (keys[s] == key)
+				return values[s];
+			s = (s + 1) & mask;
+		}
+		keys[s] = key;
+		values[s] = value;
+		size++;
+		if (size * 2 > keys.length)
+			grow();
+		return EMPTY;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == EMPTY)
+				continue;
+			int s = slot(oldKeys[i]);
+			while (values[s] != EMPTY)
+				s = (s + 1) & mask;
+			keys[s] = oldKeys[i];
+			values[s] = oldValues[i];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+}
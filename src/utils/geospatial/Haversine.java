@@ -4,7 +4,9 @@ public class Haversine {
 
 	 //courtesy to somebody at stack overflow:-)
 
-	 private static final double EQUAT_EARTH_RADIUS = 6378.1370D;
+	 // km, and the same in metres
+	 public static final double EQUAT_EARTH_RADIUS = 6378.1370D;
+	 public static final double EQUAT_EARTH_RADIUS_M = EQUAT_EARTH_RADIUS * 1000;
 	 private static final double D2R = (Math.PI / 180D);
 
 	 /**
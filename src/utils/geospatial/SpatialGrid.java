@@ -0,0 +1,396 @@
+package utils.geospatial;
+
+import java.util.Arrays;
+
+import utils.store.DoubleColumn;
+import utils.store.IntColumn;
+
+/**
+ * Uniform grid over primitive coordinate arrays or columns, node i at
+ * (lats[i], lons[i]).
+ *
+ * Cells are counting sorted into one int array, nodes of a cell in ascending
+ * index. Distances live in a plane: inMetres() projects equirectangularly
+ * around the middle latitude of the data, inDegrees() takes the degrees as
+ * they are, as kClusters measures them. The coordinates are only read, a
+ * grid goes stale when they change; permuted() follows nodes that only
+ * changed their indices.
+ */
+public class SpatialGrid {
+
+	private static final double METRES_PER_DEGREE = Haversine.EQUAT_EARTH_RADIUS_M * Math.PI / 180.0;
+	// cells per node at most, a tiny cell size over a wide area would not fit
+	private static final int MAX_CELLS_PER_NODE = 2;
+
+	public interface Visitor {
+		void visit(int i);
+	}
+
+	private final DoubleColumn lats;
+	private final DoubleColumn lons;
+	private final double latScale;
+	private final double lonScale;
+	private final double minLat;
+	private final double minLon;
+	private final double cellLat; // degrees
+	private final double cellLon;
+	private final double cellSize; // plane units
+	private final int rows;
+	private final int cols;
+	private final int[] cellStart; // rows * cols + 1
+	private final int[] items;
+
+	private SpatialGrid(DoubleColumn lats, DoubleColumn lons, double latScale, double lonScale, double cellSize) {
+		this.lats = lats;
+		this.lons = lons;
+		this.latScale = latScale;
+		this.lonScale = lonScale;
+		int n = lats.length();
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minLat = Math.min(minLat, lats.get(i));
+			maxLat = Math.max(maxLat, lats.get(i));
+			minLon = Math.min(minLon, lons.get(i));
+			maxLon = Math.max(maxLon, lons.get(i));
+		}
+		if (n == 0) {
+			minLat = maxLat = minLon = maxLon = 0;
+		}
+		this.minLat = minLat;
+		this.minLon = minLon;
+		double spanLat = (maxLat - minLat) * latScale;
+		double spanLon = (maxLon - minLon) * lonScale;
+		double cells = (Math.floor(spanLat / cellSize) + 1) * (Math.floor(spanLon / cellSize) + 1);
+		double limit = Math.max(1, (double) n * MAX_CELLS_PER_NODE);
+		if (cells > limit)
+			cellSize *= Math.sqrt(cells / limit) * 1.01;
+		this.cellSize = cellSize;
+		this.cellLat = cellSize / latScale;
+		this.cellLon = cellSize / lonScale;
+		this.rows = (int) Math.floor(spanLat / cellSize) + 1;
+		this.cols = (int) Math.floor(spanLon / cellSize) + 1;
+
+		int[] cellOf = new int[n];
+		cellStart = new int[rows * cols + 1];
+		for (int i = 0; i < n; i++) {
+			cellOf[i] = cellIndex(clamp(rowOf(lats.get(i)), rows), clamp(colOf(lons.get(i)), cols));
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < rows * cols; c++)
+			cellStart[c + 1] += cellStart[c];
+		int[] fill = Arrays.copyOf(cellStart, rows * cols);
+		items = new int[n];
+		for (int i = 0; i < n; i++)
+			items[fill[cellOf[i]]++] = i;
+	}
+
+	/*
+	 * the geometry of grid, items renumbered and sorted again cell by cell
+	 */
+	private SpatialGrid(SpatialGrid grid, DoubleColumn lats, DoubleColumn lons, IntColumn newIndex) {
+		this.lats = lats;
+		this.lons = lons;
+		this.latScale = grid.latScale;
+		this.lonScale = grid.lonScale;
+		this.minLat = grid.minLat;
+		this.minLon = grid.minLon;
+		this.cellLat = grid.cellLat;
+		this.cellLon = grid.cellLon;
+		this.cellSize = grid.cellSize;
+		this.rows = grid.rows;
+		this.cols = grid.cols;
+		this.cellStart = grid.cellStart;
+		this.items = new int[grid.items.length];
+		for (int p = 0; p < items.length; p++)
+			items[p] = newIndex.get(grid.items[p]);
+		for (int c = 0; c < rows * cols; c++)
+			Arrays.sort(items, cellStart[c], cellStart[c + 1]);
+	}
+
+	/**
+	 * distances and radii in metres
+	 */
+	public static SpatialGrid inMetres(double[] lats, double[] lons, double cellSizeM) {
+		return inMetres(DoubleColumn.wrap(lats), DoubleColumn.wrap(lons), cellSizeM);
+	}
+
+	public static SpatialGrid inMetres(DoubleColumn lats, DoubleColumn lons, double cellSizeM) {
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		for (int i = 0; i < lats.length(); i++) {
+			minLat = Math.min(minLat, lats.get(i));
+			maxLat = Math.max(maxLat, lats.get(i));
+		}
+		double middle = lats.length() == 0 ? 0 : (minLat + maxLat) / 2;
+		return new SpatialGrid(lats, lons, METRES_PER_DEGREE, METRES_PER_DEGREE * Math.cos(Math.toRadians(middle)),
+				cellSizeM);
+	}
+
+	/**
+	 * distances and radii in plain degrees
+	 */
+	public static SpatialGrid inDegrees(double[] lats, double[] lons, double cellSizeDeg) {
+		return new SpatialGrid(DoubleColumn.wrap(lats), DoubleColumn.wrap(lons), 1.0, 1.0, cellSizeDeg);
+	}
+
+	public static SpatialGrid inDegrees(DoubleColumn lats, DoubleColumn lons, double cellSizeDeg) {
+		return new SpatialGrid(lats, lons, 1.0, 1.0, cellSizeDeg);
+	}
+
+	/**
+	 * in degrees, cells sized for about nodesPerCell nodes each were they
+	 * spread evenly over the box of all of them
+	 */
+	public static SpatialGrid inDegreesByDensity(DoubleColumn lats, DoubleColumn lons, int nodesPerCell) {
+		int n = lats.length();
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minLat = Math.min(minLat, lats.get(i));
+			maxLat = Math.max(maxLat, lats.get(i));
+			minLon = Math.min(minLon, lons.get(i));
+			maxLon = Math.max(maxLon, lons.get(i));
+		}
+		double area = Math.max((maxLat - minLat) * (maxLon - minLon), 1e-12);
+		return inDegrees(lats, lons, Math.sqrt(area / Math.max(1, n / nodesPerCell)));
+	}
+
+	/**
+	 * the same cells over the same nodes after they were reordered, node i
+	 * is now node newIndex[i] at (lats[newIndex[i]], lons[newIndex[i]])
+	 */
+	public SpatialGrid permuted(IntColumn newIndex, DoubleColumn lats, DoubleColumn lons) {
+		return new SpatialGrid(this, lats, lons, newIndex);
+	}
+
+	private int rowOf(double lat) {
+		return (int) Math.floor((lat - minLat) / cellLat);
+	}
+
+	private int colOf(double lon) {
+		return (int) Math.floor((lon - minLon) / cellLon);
+	}
+
+	private static int clamp(int v, int n) {
+		return v < 0 ? 0 : (v >= n ? n - 1 : v);
+	}
+
+	private int cellIndex(int row, int col) {
+		return row * cols + col;
+	}
+
+	public double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = (lat1 - lat2) * latScale;
+		double dLon = (lon1 - lon2) * lonScale;
+		return Math.sqrt(dLat * dLat + dLon * dLon);
+	}
+
+	public double distance(int i, double lat, double lon) {
+		return distance(lats.get(i), lons.get(i), lat, lon);
+	}
+
+	/**
+	 * nodes inside the box, borders included, cell by cell
+	 */
+	public void forEachInBox(double minLat, double minLon, double maxLat, double maxLon, Visitor visitor) {
+		int r0 = Math.max(0, rowOf(minLat));
+		int r1 = Math.min(rows - 1, rowOf(maxLat));
+		int c0 = Math.max(0, colOf(minLon));
+		int c1 = Math.min(cols - 1, colOf(maxLon));
+		// box entirely off the grid
+		if (rowOf(minLat) >= rows || rowOf(maxLat) < 0 || colOf(minLon) >= cols || colOf(maxLon) < 0)
+			return;
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				int cell = cellIndex(r, c);
+				for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+					int i = items[p];
+					double lat = lats.get(i);
+					double lon = lons.get(i);
+					if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon)
+						visitor.visit(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * nodes at most radius away, in the units of the grid
+	 */
+	public void forEachWithin(final double lat, final double lon, final double radius, final Visitor visitor) {
+		forEachInBox(lat - radius / latScale, lon - radius / lonScale, lat + radius / latScale,
+				lon + radius / lonScale, new Visitor() {
+					@Override
+					public void visit(int i) {
+						if (distance(i, lat, lon) <= radius)
+							visitor.visit(i);
+					}
+				});
+	}
+
+	/**
+	 * @return the nearest node, the lowest index among equally near ones, -1
+	 *         when the grid is empty
+	 */
+	public int nearest(double lat, double lon) {
+		int[] one = nearest(lat, lon, 1);
+		return one.length == 0 ? -1 : one[0];
+	}
+
+	/**
+	 * rings of cells around the one of (lat, lon) until no closer node can
+	 * follow
+	 *
+	 * @return up to k nodes, nearest first, ties by lower index
+	 */
+	public int[] nearest(double lat, double lon, int k) {
+		int n = items.length;
+		k = Math.min(k, n);
+		if (k <= 0)
+			return new int[0];
+		// max-heap of the best k, worst on top
+		double[] heapDist = new double[k];
+		int[] heapIdx = new int[k];
+		int heapSize = 0;
+		int qr = rowOf(lat);
+		int qc = colOf(lon);
+		int maxRing = Math.max(Math.max(Math.abs(qr), Math.abs(qr - (rows - 1))),
+				Math.max(Math.abs(qc), Math.abs(qc - (cols - 1))));
+		// rings closer than the grid are empty
+		int minRing = Math.max(Math.max(0, Math.max(-qr, qr - (rows - 1))), Math.max(0, Math.max(-qc, qc - (cols - 1))));
+		for (int ring = minRing; ring <= maxRing; ring++) {
+			// the query lies inside its cell, ring r is at least r - 1 cells away
+			if (heapSize == k && (ring - 1) * cellSize > heapDist[0])
+				break;
+			for (int r = qr - ring; r <= qr + ring; r++) {
+				if (r < 0 || r >= rows)
+					continue;
+				boolean edgeRow = r == qr - ring || r == qr + ring;
+				int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+				for (int c = qc - ring; c <= qc + ring; c += step) {
+					if (c < 0 || c >= cols)
+						continue;
+					int cell = cellIndex(r, c);
+					for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+						int i = items[p];
+						double d = distance(i, lat, lon);
+						if (heapSize < k) {
+							heapDist[heapSize] = d;
+							heapIdx[heapSize] = i;
+							siftUp(heapDist, heapIdx, heapSize++);
+						} else if (isWorse(heapDist[0], heapIdx[0], d, i)) {
+							heapDist[0] = d;
+							heapIdx[0] = i;
+							siftDown(heapDist, heapIdx, heapSize);
+						}
+					}
+				}
+			}
+		}
+		int[] result = new int[heapSize];
+		for (int s = heapSize - 1; s >= 0; s--) {
+			result[s] = heapIdx[0];
+			heapDist[0] = heapDist[s];
+			heapIdx[0] = heapIdx[s];
+			siftDown(heapDist, heapIdx, s);
+		}
+		return result;
+	}
+
+	private static boolean isWorse(double d1, int i1, double d2, int i2) {
+		return d1 > d2 || (d1 == d2 && i1 > i2);
+	}
+
+	private static void siftUp(double[] dist, int[] idx, int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) / 2;
+			if (!isWorse(dist[pos], idx[pos], dist[parent], idx[parent]))
+				return;
+			swap(dist, idx, pos, parent);
+			pos = parent;
+		}
+	}
+
+	private static void siftDown(double[] dist, int[] idx, int size) {
+		int pos = 0;
+		while (true) {
+			int worst = pos;
+			int left = 2 * pos + 1;
+			int right = left + 1;
+			if (left < size && isWorse(dist[left], idx[left], dist[worst], idx[worst]))
+				worst = left;
+			if (right < size && isWorse(dist[right], idx[right], dist[worst], idx[worst]))
+				worst = right;
+			if (worst == pos)
+				return;
+			swap(dist, idx, pos, worst);
+			pos = worst;
+		}
+	}
+
+	private static void swap(double[] dist, int[] idx, int a, int b) {
+		double d = dist[a];
+		dist[a] = dist[b];
+		dist[b] = d;
+		int i = idx[a];
+		idx[a] = idx[b];
+		idx[b] = i;
+	}
+
+	// cells, row major, for stages walking the grid cell by cell
+
+	public int getCellCount() {
+		return rows * cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public int cellOf(double lat, double lon) {
+		return cellIndex(clamp(rowOf(lat), rows), clamp(colOf(lon), cols));
+	}
+
+	public void forEachInCell(int cell, Visitor visitor) {
+		for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++)
+			visitor.visit(items[p]);
+	}
+
+	/**
+	 * ascending
+	 */
+	public int[] itemsInCell(int cell) {
+		return Arrays.copyOfRange(items, cellStart[cell], cellStart[cell + 1]);
+	}
+
+	public int nmbInCell(int cell) {
+		return cellStart[cell + 1] - cellStart[cell];
+	}
+
+	/**
+	 * south west corner
+	 */
+	public double cellMinLat(int cell) {
+		return minLat + (cell / cols) * cellLat;
+	}
+
+	public double cellMinLon(int cell) {
+		return minLon + (cell % cols) * cellLon;
+	}
+
+	public double getCellLat() {
+		return cellLat;
+	}
+
+	public double getCellLon() {
+		return cellLon;
+	}
+}
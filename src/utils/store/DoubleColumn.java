@@ -0,0 +1,61 @@
+package utils.store;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * double per index, on heap (array) or off heap (chunks), see NodeStore.
+ * Distinct indices may be written from distinct threads.
+ */
+public final class DoubleColumn {
+
+	private final double[] array;
+	private final DoubleBuffer[] chunks;
+	private final ByteBuffer[] bytes; // what the chunks view, NodeStore frees them
+	private final int length;
+
+	private DoubleColumn(double[] array) {
+		this.array = array;
+		this.chunks = null;
+		this.bytes = null;
+		this.length = array.length;
+	}
+
+	DoubleColumn(ByteBuffer[] bytes, int length) {
+		this.array = null;
+		this.chunks = new DoubleBuffer[bytes.length];
+		for (int c = 0; c < bytes.length; c++)
+			chunks[c] = bytes[c].asDoubleBuffer();
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	public static DoubleColumn wrap(double[] array) {
+		return new DoubleColumn(array);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return array == null;
+	}
+
+	ByteBuffer[] bytes() {
+		return bytes;
+	}
+
+	public double get(int i) {
+		if (array != null)
+			return array[i];
+		return chunks[i >>> NodeStore.CHUNK_BITS].get(i & NodeStore.CHUNK_MASK);
+	}
+
+	public void set(int i, double value) {
+		if (array != null)
+			array[i] = value;
+		else
+			chunks[i >>> NodeStore.CHUNK_BITS].put(i & NodeStore.CHUNK_MASK, value);
+	}
+}
@@ -0,0 +1,137 @@
+package utils.store;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * int per index, on heap (array) or off heap (chunks), see NodeStore.
+ * Distinct indices may be written from distinct threads.
+ */
+public final class IntColumn {
+
+	// rows shorter than this are insertion sorted off heap
+	private static final int INSERTION_SORT_UP_TO = 32;
+
+	private final int[] array;
+	private final IntBuffer[] chunks;
+	private final ByteBuffer[] bytes; // what the chunks view, NodeStore frees them
+	private final int length;
+
+	private IntColumn(int[] array) {
+		this.array = array;
+		this.chunks = null;
+		this.bytes = null;
+		this.length = array.length;
+	}
+
+	IntColumn(ByteBuffer[] bytes, int length) {
+		this.array = null;
+		this.chunks = new IntBuffer[bytes.length];
+		for (int c = 0; c < bytes.length; c++)
+			chunks[c] = bytes[c].asIntBuffer();
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	public static IntColumn wrap(int[] array) {
+		return new IntColumn(array);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return array == null;
+	}
+
+	ByteBuffer[] bytes() {
+		return bytes;
+	}
+
+	public int get(int i) {
+		if (array != null)
+			return array[i];
+		return chunks[i >>> NodeStore.CHUNK_BITS].get(i & NodeStore.CHUNK_MASK);
+	}
+
+	public void set(int i, int value) {
+		if (array != null)
+			array[i] = value;
+		else
+			chunks[i >>> NodeStore.CHUNK_BITS].put(i & NodeStore.CHUNK_MASK, value);
+	}
+
+	/**
+	 * ascending, [from, to); off heap in place, insertion sort for short
+	 * rows, heapsort for the rest, no copy on the heap
+	 */
+	public void sort(int from, int to) {
+		if (array != null) {
+			Arrays.sort(array, from, to);
+		} else if (to - from <= INSERTION_SORT_UP_TO) {
+			for (int i = from + 1; i < to; i++) {
+				int v = get(i);
+				int j = i - 1;
+				while (j >= from && get(j) > v) {
+					set(j + 1, get(j));
+					j--;
+				}
+				set(j + 1, v);
+			}
+		} else {
+			for (int i = from + (to - from) / 2 - 1; i >= from; i--)
+				siftDown(from, i, to);
+			for (int end = to - 1; end > from; end--) {
+				int top = get(from);
+				set(from, get(end));
+				set(end, top);
+				siftDown(from, from, end);
+			}
+		}
+	}
+
+	/*
+	 * max heap over [from, end), children of i at 2(i - from) + 1 + from
+	 */
+	private void siftDown(int from, int i, int end) {
+		int v = get(i);
+		while (true) {
+			long firstChild = 2L * (i - from) + 1 + from;
+			if (firstChild >= end)
+				break;
+			int child = (int) firstChild;
+			if (child + 1 < end && get(child + 1) > get(child))
+				child++;
+			if (get(child) <= v)
+				break;
+			set(i, get(child));
+			i = child;
+		}
+		set(i, v);
+	}
+
+	/**
+	 * over [from, to), sorted ascending
+	 *
+	 * @return as Arrays.binarySearch
+	 */
+	public int binarySearch(int from, int to, int key) {
+		if (array != null)
+			return Arrays.binarySearch(array, from, to, key);
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int v = get(mid);
+			if (v < key)
+				low = mid + 1;
+			else if (v > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,121 @@
+package utils.store;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * long per index, on heap (array) or off heap (chunks), see NodeStore.
+ * Distinct indices may be written from distinct threads.
+ */
+public final class LongColumn {
+
+	private final long[] array;
+	private final LongBuffer[] chunks;
+	private final ByteBuffer[] bytes; // what the chunks view, NodeStore frees them
+	private final int length;
+
+	private LongColumn(long[] array) {
+		this.array = array;
+		this.chunks = null;
+		this.bytes = null;
+		this.length = array.length;
+	}
+
+	LongColumn(ByteBuffer[] bytes, int length) {
+		this.array = null;
+		this.chunks = new LongBuffer[bytes.length];
+		for (int c = 0; c < bytes.length; c++)
+			chunks[c] = bytes[c].asLongBuffer();
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	public static LongColumn wrap(long[] array) {
+		return new LongColumn(array);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return array == null;
+	}
+
+	ByteBuffer[] bytes() {
+		return bytes;
+	}
+
+	public long get(int i) {
+		if (array != null)
+			return array[i];
+		return chunks[i >>> NodeStore.CHUNK_BITS].get(i & NodeStore.CHUNK_MASK);
+	}
+
+	public void set(int i, long value) {
+		if (array != null)
+			array[i] = value;
+		else
+			chunks[i >>> NodeStore.CHUNK_BITS].put(i & NodeStore.CHUNK_MASK, value);
+	}
+
+	/**
+	 * ascending, the whole column; off heap in place by heapsort, no copy
+	 * of it on the heap
+	 */
+	public void sort() {
+		if (array != null) {
+			Arrays.sort(array);
+			return;
+		}
+		for (int i = length / 2 - 1; i >= 0; i--)
+			siftDown(i, length);
+		for (int end = length - 1; end > 0; end--) {
+			long top = get(0);
+			set(0, get(end));
+			set(end, top);
+			siftDown(0, end);
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		long v = get(i);
+		while (true) {
+			long firstChild = 2L * i + 1;
+			if (firstChild >= end)
+				break;
+			int child = (int) firstChild;
+			if (child + 1 < end && get(child + 1) > get(child))
+				child++;
+			if (get(child) <= v)
+				break;
+			set(i, get(child));
+			i = child;
+		}
+		set(i, v);
+	}
+
+	/**
+	 * over the whole column, sorted ascending
+	 *
+	 * @return as Arrays.binarySearch
+	 */
+	public int binarySearch(long key) {
+		if (array != null)
+			return Arrays.binarySearch(array, key);
+		int low = 0;
+		int high = length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long v = get(mid);
+			if (v < key)
+				low = mid + 1;
+			else if (v > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+}
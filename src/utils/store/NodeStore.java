@@ -0,0 +1,243 @@
+package utils.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the primitive columns of a CompactGraph live.
+ *
+ *   HEAP    plain arrays
+ *   DIRECT  direct ByteBuffers, outside of the heap and of every GC pause,
+ *           bounded by -XX:MaxDirectMemorySize
+ *   MAPPED  memory mapped temp files under the directory, one per column,
+ *           deleted right after mapping; the OS pages them in and out, so
+ *           columns may outgrow RAM as well
+ *
+ * Off heap columns are split into chunks of 2^CHUNK_BITS elements, one
+ * ByteBuffer cannot hold more than 2GB. free() gives the memory of a column
+ * back right away, direct memory released and mappings unmapped; a column
+ * only dropped is given back once the GC finds its buffers unreachable,
+ * which a heap with room to spare may put off for good.
+ */
+public class NodeStore {
+
+	static final int CHUNK_BITS = 27;
+	static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	public enum Kind {
+		HEAP, DIRECT, MAPPED
+	}
+
+	private final Kind kind;
+	private final File directory;
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong freedBytes = new AtomicLong();
+
+	// Unsafe.invokeCleaner(ByteBuffer) from Java 9 on, DirectBuffer.cleaner()
+	// and Cleaner.clean() on 8; looked up by reflection, this tree builds
+	// against Java 8. Both null, free() leaves it to the GC.
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	private static final Method CLEANER;
+	private static final Method CLEAN;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		Method cleaner = null;
+		Method clean = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		} catch (Exception e) {
+			invokeCleaner = null;
+			try {
+				cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			} catch (Exception e8) {
+				cleaner = null;
+				System.err.println("NODE STORE: no cleaner found, freed columns wait for the GC");
+			}
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+		CLEANER = cleaner;
+		CLEAN = clean;
+	}
+
+	public NodeStore(Kind kind, File directory) {
+		this.kind = kind;
+		this.directory = directory;
+		if (kind == Kind.MAPPED && !directory.exists() && !directory.mkdirs())
+			throw new RuntimeException("HALT cannot create node store directory " + directory);
+	}
+
+	public static NodeStore heap() {
+		return new NodeStore(Kind.HEAP, null);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * off heap bytes ever allocated, freed or not
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * off heap bytes given back by free()
+	 */
+	public long getFreedBytes() {
+		return freedBytes.get();
+	}
+
+	public IntColumn ints(int length) {
+		if (kind == Kind.HEAP)
+			return IntColumn.wrap(new int[length]);
+		return new IntColumn(chunks(length, 4), length);
+	}
+
+	public LongColumn longs(int length) {
+		if (kind == Kind.HEAP)
+			return LongColumn.wrap(new long[length]);
+		return new LongColumn(chunks(length, 8), length);
+	}
+
+	public DoubleColumn doubles(int length) {
+		if (kind == Kind.HEAP)
+			return DoubleColumn.wrap(new double[length]);
+		return new DoubleColumn(chunks(length, 8), length);
+	}
+
+	public ShortColumn shorts(int length) {
+		if (kind == Kind.HEAP)
+			return ShortColumn.wrap(new short[length]);
+		return new ShortColumn(chunks(length, 2), length);
+	}
+
+	// copies into this store, the tail past the source zeroed
+
+	public IntColumn copyOf(IntColumn source, int length) {
+		IntColumn copy = ints(length);
+		for (int i = 0, n = Math.min(length, source.length()); i < n; i++)
+			copy.set(i, source.get(i));
+		return copy;
+	}
+
+	public LongColumn copyOf(LongColumn source, int length) {
+		LongColumn copy = longs(length);
+		for (int i = 0, n = Math.min(length, source.length()); i < n; i++)
+			copy.set(i, source.get(i));
+		return copy;
+	}
+
+	public DoubleColumn copyOf(DoubleColumn source, int length) {
+		DoubleColumn copy = doubles(length);
+		for (int i = 0, n = Math.min(length, source.length()); i < n; i++)
+			copy.set(i, source.get(i));
+		return copy;
+	}
+
+	public ShortColumn copyOf(ShortColumn source, int length) {
+		ShortColumn copy = shorts(length);
+		for (int i = 0, n = Math.min(length, source.length()); i < n; i++)
+			copy.set(i, source.get(i));
+		return copy;
+	}
+
+	// off heap memory of a column back now, nothing may read or write the
+	// column after; heap columns are left to the GC
+
+	public void free(IntColumn column) {
+		release(column.bytes());
+	}
+
+	public void free(LongColumn column) {
+		release(column.bytes());
+	}
+
+	public void free(DoubleColumn column) {
+		release(column.bytes());
+	}
+
+	public void free(ShortColumn column) {
+		release(column.bytes());
+	}
+
+	private void release(ByteBuffer[] bytes) {
+		if (bytes == null)
+			return;
+		for (ByteBuffer chunk : bytes) {
+			try {
+				if (INVOKE_CLEANER != null) {
+					INVOKE_CLEANER.invoke(UNSAFE, chunk);
+				} else if (CLEANER != null) {
+					Object cleaner = CLEANER.invoke(chunk);
+					if (cleaner != null)
+						CLEAN.invoke(cleaner);
+				} else {
+					continue;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT cannot free a column chunk of " + chunk.capacity() + " bytes");
+			}
+			freedBytes.addAndGet(chunk.capacity());
+		}
+	}
+
+	/**
+	 * zeroed, native byte order, the last chunk only as long as needed
+	 */
+	private ByteBuffer[] chunks(int length, int width) {
+		int nmbOfChunks = Math.max(1, (int) (((long) length + CHUNK_MASK) >>> CHUNK_BITS));
+		ByteBuffer[] chunks = new ByteBuffer[nmbOfChunks];
+		long total = (long) length * width;
+		if (kind == Kind.DIRECT) {
+			for (int c = 0; c < nmbOfChunks; c++)
+				chunks[c] = ByteBuffer.allocateDirect(chunkBytes(c, length, width)).order(ByteOrder.nativeOrder());
+		} else {
+			try {
+				File file = File.createTempFile("column", ".bin", directory);
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					raf.setLength(total);
+					FileChannel channel = raf.getChannel();
+					for (int c = 0; c < nmbOfChunks; c++) {
+						long position = ((long) c << CHUNK_BITS) * width;
+						chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes(c, length, width))
+								.order(ByteOrder.nativeOrder());
+					}
+				} finally {
+					raf.close();
+				}
+				// mappings outlive the file, where the OS does not let it go yet it goes on exit
+				if (!file.delete())
+					file.deleteOnExit();
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new RuntimeException("HALT cannot map column of " + total + " bytes under " + directory);
+			}
+		}
+		allocatedBytes.addAndGet(total);
+		return chunks;
+	}
+
+	private static int chunkBytes(int chunk, int length, int width) {
+		long first = (long) chunk << CHUNK_BITS;
+		return (int) (Math.min(length - first, 1L << CHUNK_BITS) * width);
+	}
+}
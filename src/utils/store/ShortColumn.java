@@ -0,0 +1,66 @@
+package utils.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * short per index, on heap (array) or off heap (chunks), see NodeStore.
+ * Distinct indices may be written from distinct threads.
+ */
+public final class ShortColumn {
+
+	private final short[] array;
+	private final ShortBuffer[] chunks;
+	private final ByteBuffer[] bytes; // what the chunks view, NodeStore frees them
+	private final int length;
+
+	private ShortColumn(short[] array) {
+		this.array = array;
+		this.chunks = null;
+		this.bytes = null;
+		this.length = array.length;
+	}
+
+	ShortColumn(ByteBuffer[] bytes, int length) {
+		this.array = null;
+		this.chunks = new ShortBuffer[bytes.length];
+		for (int c = 0; c < bytes.length; c++)
+			chunks[c] = bytes[c].asShortBuffer();
+		this.bytes = bytes;
+		this.length = length;
+	}
+
+	public static ShortColumn wrap(short[] array) {
+		return new ShortColumn(array);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return array == null;
+	}
+
+	ByteBuffer[] bytes() {
+		return bytes;
+	}
+
+	public short get(int i) {
+		if (array != null)
+			return array[i];
+		return chunks[i >>> NodeStore.CHUNK_BITS].get(i & NodeStore.CHUNK_MASK);
+	}
+
+	public void set(int i, short value) {
+		if (array != null)
+			array[i] = value;
+		else
+			chunks[i >>> NodeStore.CHUNK_BITS].put(i & NodeStore.CHUNK_MASK, value);
+	}
+
+	public void fill(short value) {
+		for (int i = 0; i < length; i++)
+			set(i, value);
+	}
+}